@@ -5,8 +5,12 @@ import joptsimple.util.PathConverter;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
 import java.util.stream.Stream;
 
 import static joptsimple.util.PathProperties.*;
@@ -16,6 +20,13 @@ import static altrisi.sisaassembler.Logging.*;
 class AssemblerApp {
 	private static final boolean DEV_ENV = false;
 	private static final String VERSION = AssemblerApp.class.getPackage().getImplementationVersion();
+	private static final Map<String, OutputFormat> FORMATS = Map.of(
+			"raw",     OutputFormat.RAW,
+			"ihex",    OutputFormat.INTEL_HEX,
+			"logisim", OutputFormat.LOGISIM,
+			"listing", OutputFormat.LISTING,
+			"object",  OutputFormat.OBJECT
+		);
 
 	public static void main(String[] args) {
 		OptionParser parser = new OptionParser();
@@ -24,10 +35,27 @@ class AssemblerApp {
 		var isExcessivelyVerbose = parser.accepts("excessivelyVerbose", "Logs too much additional information, including stack traces for all log lines")
 				.availableUnless(isVerbose);
 		var instruction = parser.accepts("instruction", "A single instruction to convert and print").withRequiredArg();
-		var inFile = parser.accepts("file", "The path to the input file to compile").requiredUnless(instruction)
-				.withRequiredArg().withValuesConvertedBy(new PathConverter(READABLE));
+		var server = parser.accepts("server", "Runs a language server reporting diagnostics over the standard input and output")
+				.availableUnless(instruction);
+		var benchmark = parser.accepts("benchmark", "Assembles a generated corpus of the given amount of lines and reports the throughput")
+				.availableUnless(instruction, server).withRequiredArg().ofType(Long.class);
+		var seed = parser.accepts("seed", "The seed of the benchmark corpus").availableIf(benchmark)
+				.withRequiredArg().ofType(Long.class).defaultsTo(0L);
+		var errorRate = parser.accepts("errorRate", "The fraction of lines of the benchmark corpus that fail to assemble").availableIf(benchmark)
+				.withRequiredArg().ofType(Double.class).defaultsTo(0.0);
+		var runs = parser.accepts("runs", "How many times to assemble the benchmark corpus").availableIf(benchmark)
+				.withRequiredArg().ofType(Integer.class).defaultsTo(3);
+		var link = parser.accepts("link", "Comma-separated object files to link into the output binary").availableUnless(instruction, server, benchmark)
+				.withRequiredArg().withValuesConvertedBy(new PathConverter(READABLE)).withValuesSeparatedBy(',');
+		var inFile = parser.accepts("file", "The path to the input file to compile").requiredUnless(instruction, link, server, benchmark)
+				.availableUnless(link, server, benchmark).withRequiredArg().withValuesConvertedBy(new PathConverter(READABLE));
 		var outFile = parser.accepts("output", "The path to the output binary file")
-				.requiredIf(inFile).withRequiredArg().withValuesConvertedBy(new PathConverter());
+				.requiredIf(inFile, link).withRequiredArg().withValuesConvertedBy(new PathConverter());
+		var format = parser.accepts("format", "The output format, one of " + FORMATS.keySet()).availableIf(inFile, benchmark)
+				.withRequiredArg().defaultsTo("raw");
+		var optimize = parser.accepts("optimize", "Applies peephole optimizations, only safe if branches use labels").availableIf(inFile, benchmark);
+		var watch = parser.accepts("watch", "Keeps running, assembling the input file again every time it changes. Raw output only")
+				.availableIf(inFile).availableUnless(format, optimize);
 		var earlyExit = parser.accepts("earlyExit", "Makes compilation stop at the first error");
 		OptionSet options;
 		try {
@@ -37,6 +65,10 @@ class AssemblerApp {
 			return; // compiler doesn't know it doesn't return
 		}
 
+		// the language server talks through the standard output, send everything else to the standard error
+		PrintStream stdout = System.out;
+		if (options.has(server)) System.setOut(System.err);
+
 		// don't want to init Logging yet in case I convert it to fully constants, given we don't have verbosity parsed yet
 		System.out.println("SISA Assembler " + VERSION);
 
@@ -56,10 +88,45 @@ class AssemblerApp {
 
 		if (options.has(instruction)) {
 			assembleSingle(options.valueOf(instruction));
+		} else if (options.has(server)) {
+			try {
+				System.exit(new DiagnosticsServer(System.in, stdout).run());
+			} catch (IOException e) {
+				fatal("Error while communicating with the client: ", e);
+			}
+		} else if (options.has(benchmark)) {
+			OutputFormat outFormat = FORMATS.get(options.valueOf(format));
+			if (outFormat == null) {
+				fatal("Unknown output format '" + options.valueOf(format) + "', must be one of " + FORMATS.keySet());
+			}
+			if (options.valueOf(errorRate) < 0 || options.valueOf(errorRate) > 1) {
+				fatal("The error rate must be between 0 and 1");
+			}
+			try {
+				new Benchmark(options.valueOf(benchmark), options.valueOf(seed), options.valueOf(errorRate), outFormat, options.has(optimize))
+						.run(options.valueOf(runs));
+			} catch (IOException e) {
+				fatal("Error while reading or writing files: ", e);
+			}
+		} else if (options.has(link)) {
+			link(options.valuesOf(link), options.valueOf(outFile));
+		} else if (options.has(watch)) {
+			try {
+				WatchMode.run(options.valueOf(inFile), options.valueOf(outFile));
+			} catch (IOException e) {
+				fatal("Error while reading or writing files: ", e);
+			}
 		} else {
 			Path in = options.valueOf(inFile);
 			Path out = options.valueOf(outFile);
-			try (var assembler = new Assembler(out)) {
+			OutputFormat outFormat = FORMATS.get(options.valueOf(format));
+			if (outFormat == null) {
+				fatal("Unknown output format '" + options.valueOf(format) + "', must be one of " + FORMATS.keySet());
+			}
+			try (var assembler = new Assembler(out, outFormat)) {
+				if (options.has(optimize)) {
+					assembler.optimize(EnumSet.allOf(Peephole.class));
+				}
 				assembler.assemble(in);
 				if (assembler.failed()) {
 					try {
@@ -71,6 +138,8 @@ class AssemblerApp {
 						info("-----------------------------------");
 					fatal("Compilation failed with " + assembler.errors() + " error(s)");
 				} else {
+					if (options.has(optimize))
+						info("Optimized out " + assembler.optimizedOut() + " instruction(s)");
 					info("Finished compilation of " + in.getFileName() + " successfully");
 				}
 			} catch (IOException e) {
@@ -81,6 +150,25 @@ class AssemblerApp {
 
 	}
 
+	private static void link(List<Path> objects, Path out) {
+		var linker = new Linker();
+		try {
+			linker.link(objects, out);
+		} catch (IOException e) {
+			fatal("Error while reading or writing files: ", e);
+		}
+		if (linker.failed()) {
+			try {
+				Files.deleteIfExists(out);
+			} catch (IOException e) {
+				error("Failed to delete output file for failed execution", e);
+			}
+			fatal("Linking failed with " + linker.errors() + " error(s)");
+		} else {
+			info("Finished linking " + objects.size() + " object(s) successfully");
+		}
+	}
+
 	private static void assembleSingle(String instruction) {
 		var out = new ByteArrayOutputStream(2);
 		try (var assembler = new Assembler(out)) {
@@ -89,9 +177,12 @@ class AssemblerApp {
 		} catch (IOException e) {
 			throw new AssertionError(e);
 		}
-		byte[] assembledInstruction = out.toByteArray();
-		assert assembledInstruction.length == 2;
+		byte[] assembled = out.toByteArray();
 		info("Instruction: " + instruction);
-		info("0x" + shortToString(assembledInstruction, HEX).toUpperCase() + " (" + shortToString(assembledInstruction, BIN) + ")");
+		// pseudo-instructions and data can take more than one word
+		for (int i = 0; i < assembled.length; i += 2) {
+			byte[] word = {assembled[i], assembled[i + 1]};
+			info("0x" + shortToString(word, HEX).toUpperCase() + " (" + shortToString(word, BIN) + ")");
+		}
 	}
 }
@@ -0,0 +1,118 @@
+package altrisi.sisaassembler;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static altrisi.sisaassembler.Logging.*;
+
+/**
+ * Assembles a {@link CorpusGenerator generated corpus} from disk to disk and reports how fast it went and how
+ * much memory it took, so that versions and configurations can be compared on the same workload.
+ */
+class Benchmark {
+	private final long lines;
+	private final long seed;
+	private final double errorRate;
+	private final OutputFormat format;
+	private final boolean optimize;
+
+	Benchmark(long lines, long seed, double errorRate, OutputFormat format, boolean optimize) {
+		this.lines = lines;
+		this.seed = seed;
+		this.errorRate = errorRate;
+		this.format = format;
+		this.optimize = optimize;
+	}
+
+	/**
+	 * Generates the corpus into a temporary directory, assembles it the given amount of times and deletes it
+	 */
+	void run(int runs) throws IOException {
+		Path dir = Files.createTempDirectory("sisaj-benchmark");
+		Path in = dir.resolve("corpus.sisa");
+		Path out = dir.resolve("corpus.out");
+		try {
+			long start = System.nanoTime();
+			var generator = new CorpusGenerator(seed, errorRate);
+			try (var writer = Files.newBufferedWriter(in, StandardCharsets.US_ASCII)) {
+				generator.write(writer, lines);
+			}
+			long size = Files.size(in);
+			info("Generated " + lines + " lines (" + mb(size) + " MB, " + generator.errors() + " errors) with seed " + seed
+					+ " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+
+			for (int run = 1; run <= runs; run++) {
+				assemble(run, in, out, size, generator.errors());
+			}
+			String rss = peakRss();
+			info("Peak RSS: " + (rss == null ? "unavailable" : rss));
+		} finally {
+			Files.deleteIfExists(in);
+			Files.deleteIfExists(out);
+			Files.deleteIfExists(dir);
+		}
+	}
+
+	private void assemble(int run, Path in, Path out, long size, long expectedErrors) throws IOException {
+		List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+		long collections = collections(collectors);
+		long collectionMillis = collectionMillis(collectors);
+		long start = System.nanoTime();
+		int errors;
+		try (var assembler = new Assembler(out, format) {
+				@Override
+				public void failedLine(String line, int lineNo, AssembleException exception) {
+					// expected, only count them
+				}
+			}) {
+			if (optimize) assembler.optimize(EnumSet.allOf(Peephole.class));
+			assembler.assemble(in);
+			errors = assembler.errors();
+		}
+		long nanos = System.nanoTime() - start;
+		double seconds = nanos / 1e9;
+		info(String.format("Run %d: %d ms, %.0f lines/s, %.1f MB/s, %d GC(s) taking %d ms, %d error(s)",
+				run, TimeUnit.NANOSECONDS.toMillis(nanos), lines / seconds, mb(size) / seconds,
+				collections(collectors) - collections, collectionMillis(collectors) - collectionMillis, errors));
+		if (errors != expectedErrors) {
+			error("Expected " + expectedErrors + " error(s), the assembler is reporting a different amount");
+		}
+	}
+
+	private static long collections(List<GarbageCollectorMXBean> collectors) {
+		long total = 0;
+		for (var collector : collectors) total += Math.max(0, collector.getCollectionCount());
+		return total;
+	}
+
+	private static long collectionMillis(List<GarbageCollectorMXBean> collectors) {
+		long total = 0;
+		for (var collector : collectors) total += Math.max(0, collector.getCollectionTime());
+		return total;
+	}
+
+	private static double mb(long bytes) {
+		return bytes / 1e6;
+	}
+
+	/**
+	 * @return The peak resident set size of this process as reported by Linux, or {@code null} if not available
+	 */
+	private static String peakRss() {
+		try {
+			for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+				if (line.startsWith("VmHWM:")) return line.substring("VmHWM:".length()).strip();
+			}
+		} catch (IOException | RuntimeException e) {
+			debug("Couldn't read the peak RSS: " + e);
+		}
+		return null;
+	}
+}
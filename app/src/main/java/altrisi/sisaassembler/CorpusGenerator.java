@@ -0,0 +1,167 @@
+package altrisi.sisaassembler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.regex.Pattern;
+
+import altrisi.sisaassembler.InstructionAssembler.*;
+
+/**
+ * Generates synthetic but realistic SISA source for benchmarking: every instruction and pseudo-instruction with
+ * constants in every form {@link Utils#parseConstant(String, boolean)} takes, labels, comments, blank lines, uneven
+ * spacing and, at the given rate, lines that fail to assemble (each with a single error).<p>
+ *
+ * The output only depends on the seed, so a corpus can be compared across versions without storing it. The first
+ * lines go through every mnemonic in order, so that even small corpora cover all of them.
+ * Labels are defined but never referenced, so the corpus assembles to any {@link OutputFormat}.
+ */
+final class CorpusGenerator {
+	private static final Pattern REGISTER = Pattern.compile("\\bR[0-7]\\b");
+	private static final String[] COMMENTS = {
+			"; load the next element", "; loop counter", ";TODO unroll", "; -- interrupt handler --",
+			"; restore registers", ";; saved on the stack", "; see the manual, section 3"
+	};
+	private static final String[] SEPARATORS = {", ", ", ", ", ", ",", " , ", ",\t"};
+	private static final String[] INDENTS = {"", "", "\t", "    ", "\t\t"};
+	// error kinds
+	private static final int UNKNOWN_MNEMONIC = 0;
+	private static final int BAD_REGISTER = 1;
+	private static final int MISSING_ARGUMENT = 2;
+	private static final int OVERSIZED_CONSTANT = 3;
+
+	private final SplittableRandom random;
+	private final double errorRate;
+	private final List<String> mnemonics = new ArrayList<>();
+	private long lines;
+	private long errors;
+	private int labels;
+	private int covered;
+	// whether the instruction being generated should get an oversized constant, cleared once it does
+	private boolean oversize;
+
+	/**
+	 * @param seed      The seed, the same one always generates the same corpus
+	 * @param errorRate The fraction of lines that should fail to assemble, between 0 and 1
+	 */
+	CorpusGenerator(long seed, double errorRate) {
+		if (errorRate < 0 || errorRate > 1) throw new IllegalArgumentException("Error rate must be between 0 and 1");
+		this.random = new SplittableRandom(seed);
+		this.errorRate = errorRate;
+		mnemonics.addAll(Assembler.instructions().keySet());
+		mnemonics.addAll(Assembler.pseudoInstructions().keySet());
+		mnemonics.sort(null); // map order changes between runs
+	}
+
+	/**
+	 * Writes the given amount of lines
+	 */
+	void write(Writer out, long count) throws IOException {
+		for (long i = 0; i < count; i++) {
+			out.write(nextLine());
+			out.write('\n');
+		}
+	}
+
+	/**
+	 * @return The next line, without a line terminator
+	 */
+	String nextLine() {
+		lines++;
+		int kind = random.nextInt(100);
+		if (kind < 3) return "";
+		if (kind < 8) return pick(INDENTS) + pick(COMMENTS);
+		if (kind < 10) return "label" + labels++ + ":";
+
+		String mnemonic = covered < mnemonics.size() ? mnemonics.get(covered++) : pick(mnemonics);
+		int error = random.nextDouble() < errorRate ? random.nextInt(4) : -1;
+		if (error != -1) errors++;
+		oversize = error == OVERSIZED_CONSTANT;
+		List<String> args = arguments(mnemonic);
+		if (oversize) error = BAD_REGISTER; // took no constants, fail differently
+
+		StringBuilder line = new StringBuilder(pick(INDENTS));
+		if (kind < 12) line.append("label").append(labels++).append(": ");
+		line.append(error == UNKNOWN_MNEMONIC ? mnemonic + "X" : mnemonic).append(random.nextInt(4) == 0 ? "\t" : " ");
+		int argCount = error == MISSING_ARGUMENT ? args.size() - 1 : args.size();
+		for (int i = 0; i < argCount; i++) {
+			if (i != 0) line.append(pick(SEPARATORS));
+			line.append(args.get(i));
+		}
+		String result = line.toString();
+		if (error == BAD_REGISTER) {
+			result = REGISTER.matcher(result).replaceFirst("R9");
+		}
+		if (kind < 25) result += pick(INDENTS) + " " + pick(COMMENTS);
+		return result;
+	}
+
+	private List<String> arguments(String mnemonic) {
+		List<String> args = new ArrayList<>(3);
+		InstructionAssembler instruction = Assembler.instructions().get(mnemonic);
+		if (instruction instanceof Reg3) {
+			args.add(register());
+			args.add(register());
+			args.add(register());
+		} else if (instruction instanceof Reg2 reg2) {
+			args.add(register());
+			args.add(register());
+			if (reg2.takeConstant()) args.add(constant(6));
+		} else if (instruction instanceof Reg1 reg1) {
+			args.add(register());
+			args.add(reg1.regAtLeft() ? args.size() : 0, constant(8));
+		} else if (instruction instanceof Memory memory) {
+			args.add(register());
+			args.add(memory.memoryAtLeft() ? 0 : 1, constant(6) + "(" + register() + ")");
+		} else {
+			Macro macro = Assembler.pseudoInstructions().get(mnemonic);
+			for (int p = 0; p < macro.parameters(); p++) {
+				args.add(macro.takesRegister(p) ? register() : constant(macro.parameterBits(p)));
+			}
+		}
+		return args;
+	}
+
+	private String register() {
+		return "R" + random.nextInt(8);
+	}
+
+	private String constant(int bits) {
+		if (oversize) {
+			oversize = false;
+			return Integer.toString((1 << bits) + random.nextInt(1 << bits));
+		}
+		int min = bits == 8 ? Byte.MIN_VALUE : -(1 << (bits - 1));
+		int max = bits == 8 ? 2 * Byte.MAX_VALUE : (1 << bits) - 1; // how parseConstant bounds 8-bit constants
+		return switch (random.nextInt(4)) {
+			case 0 -> Integer.toString(random.nextInt(min, max + 1));
+			case 1 -> Integer.toString(random.nextInt(0, max + 1));
+			case 2 -> "0x" + Integer.toHexString(random.nextInt(0, max + 1)).toUpperCase();
+			default -> "0b" + Integer.toBinaryString(random.nextInt(0, max + 1));
+		};
+	}
+
+	private String pick(String[] options) {
+		return options[random.nextInt(options.length)];
+	}
+
+	private String pick(List<String> options) {
+		return options.get(random.nextInt(options.size()));
+	}
+
+	/**
+	 * @return The amount of lines generated so far
+	 */
+	long lines() {
+		return lines;
+	}
+
+	/**
+	 * @return The amount of lines generated so far that fail to assemble
+	 */
+	long errors() {
+		return errors;
+	}
+}
@@ -0,0 +1,232 @@
+package altrisi.sisaassembler;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Pattern;
+
+import static altrisi.sisaassembler.Logging.*;
+
+/**
+ * A language server over standard input and output that reports diagnostics, speaking the subset of the
+ * Language Server Protocol needed for that: lifecycle messages and incrementally synced text documents.<p>
+ *
+ * Every open document is kept as an {@link IncrementalAssembly}, so an edit only assembles the lines it touches.
+ */
+class DiagnosticsServer {
+	private static final Pattern NEWLINE = Pattern.compile("\r\n|\r|\n");
+	private static final int INCREMENTAL_SYNC = 2;
+	private static final int SEVERITY_ERROR = 1;
+	// JSON-RPC error codes
+	private static final int PARSE_ERROR = -32700;
+	private static final int METHOD_NOT_FOUND = -32601;
+	private static final int INVALID_PARAMS = -32602;
+
+	private final InputStream in;
+	private final OutputStream out;
+	private final Map<String, IncrementalAssembly> documents = new HashMap<>();
+	private boolean shutdown;
+
+	DiagnosticsServer(InputStream in, OutputStream out) {
+		this.in = new BufferedInputStream(in);
+		this.out = new BufferedOutputStream(out);
+	}
+
+	/**
+	 * Serves until the client sends {@code exit} or closes the input
+	 * @return The exit code, as defined by the protocol
+	 */
+	int run() throws IOException {
+		String message;
+		while ((message = readMessage()) != null) {
+			Map<?, ?> request;
+			try {
+				request = (Map<?, ?>)Json.parse(message);
+			} catch (IllegalArgumentException | ClassCastException e) {
+				respondError(null, PARSE_ERROR, "Invalid message: " + e.getMessage());
+				continue;
+			}
+			Object id = request.get("id");
+			String method = (String)request.get("method");
+			if (method == null) continue; // response to something we never request
+			if ("exit".equals(method)) {
+				return shutdown ? 0 : 1;
+			}
+			try {
+				Object result = handle(method, (Map<?, ?>)request.get("params"));
+				if (id != null) respond(id, result);
+			} catch (UnknownMethodException e) {
+				if (id != null) respondError(id, METHOD_NOT_FOUND, "Unknown method " + method);
+			} catch (RuntimeException e) { // malformed params
+				debug("Failed to handle " + method + ": " + e);
+				if (id != null) respondError(id, INVALID_PARAMS, String.valueOf(e.getMessage()));
+			}
+		}
+		return 1;
+	}
+
+	@SuppressWarnings("serial")
+	private static class UnknownMethodException extends RuntimeException {}
+
+	private Object handle(String method, Map<?, ?> params) throws IOException {
+		switch (method) {
+			case "initialize":
+				return Map.of(
+						"capabilities", Map.of("textDocumentSync", Map.of("openClose", true, "change", INCREMENTAL_SYNC)),
+						"serverInfo", Map.of("name", "sisaj"));
+			case "shutdown":
+				shutdown = true;
+				return null;
+			case "textDocument/didOpen": {
+				var document = (Map<?, ?>)params.get("textDocument");
+				String uri = (String)document.get("uri");
+				var assembly = new IncrementalAssembly(pathOf(uri));
+				assembly.update(lines((String)document.get("text")));
+				documents.put(uri, assembly);
+				publishDiagnostics(uri, assembly);
+				return null;
+			}
+			case "textDocument/didChange": {
+				String uri = (String)((Map<?, ?>)params.get("textDocument")).get("uri");
+				var assembly = documents.get(uri);
+				if (assembly == null) return null;
+				for (Object change : (List<?>)params.get("contentChanges")) {
+					applyChange(assembly, (Map<?, ?>)change);
+				}
+				publishDiagnostics(uri, assembly);
+				return null;
+			}
+			case "textDocument/didClose": {
+				String uri = (String)((Map<?, ?>)params.get("textDocument")).get("uri");
+				if (documents.remove(uri) != null) {
+					notify("textDocument/publishDiagnostics", Map.of("uri", uri, "diagnostics", List.of()));
+				}
+				return null;
+			}
+			case "initialized":
+			case "$/cancelRequest":
+			case "$/setTrace":
+				return null;
+			default:
+				throw new UnknownMethodException();
+		}
+	}
+
+	private static void applyChange(IncrementalAssembly assembly, Map<?, ?> change) {
+		String text = (String)change.get("text");
+		var range = (Map<?, ?>)change.get("range");
+		if (range == null) { // whole document
+			assembly.update(lines(text));
+			return;
+		}
+		var start = (Map<?, ?>)range.get("start");
+		var end = (Map<?, ?>)range.get("end");
+		int startLine = ((Number)start.get("line")).intValue();
+		int endLine = ((Number)end.get("line")).intValue();
+		// be lenient with positions past the end of the document
+		startLine = Math.min(startLine, assembly.size());
+		String first = startLine < assembly.size() ? assembly.line(startLine).text() : "";
+		String last = endLine < assembly.size() ? assembly.line(endLine).text() : "";
+		int startChar = Math.min(((Number)start.get("character")).intValue(), first.length());
+		int endChar = Math.min(((Number)end.get("character")).intValue(), last.length());
+		String replaced = first.substring(0, startChar) + text + last.substring(endChar);
+		assembly.replace(startLine, Math.min(endLine + 1, assembly.size()), lines(replaced));
+	}
+
+	private void publishDiagnostics(String uri, IncrementalAssembly assembly) throws IOException {
+		List<Object> diagnostics = new ArrayList<>(assembly.errors());
+		for (int i = 0; i < assembly.size() && diagnostics.size() < assembly.errors(); i++) {
+			var line = assembly.line(i);
+			if (line.failures().isEmpty()) continue;
+			var range = Map.of(
+					"start", Map.of("line", i, "character", 0),
+					"end", Map.of("line", i, "character", line.text().length()));
+			for (var failure : line.failures()) {
+				diagnostics.add(Map.of(
+						"range", range,
+						"severity", SEVERITY_ERROR,
+						"source", "sisaj",
+						"message", failure.exception().getMessage()));
+			}
+		}
+		notify("textDocument/publishDiagnostics", Map.of("uri", uri, "diagnostics", diagnostics));
+	}
+
+	private static List<String> lines(String text) {
+		return Arrays.asList(NEWLINE.split(text, -1));
+	}
+
+	private static Path pathOf(String uri) {
+		try {
+			URI parsed = URI.create(uri);
+			return "file".equals(parsed.getScheme()) ? Path.of(parsed) : null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	// JSON-RPC
+
+	/**
+	 * @return The next message, or {@code null} if the input ended or can't be followed anymore
+	 */
+	private String readMessage() throws IOException {
+		int length = -1;
+		String header;
+		while (!(header = readHeaderLine()).isEmpty()) {
+			int colon = header.indexOf(':');
+			if (colon > 0 && header.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+				try {
+					length = Integer.parseInt(header.substring(colon + 1).trim());
+				} catch (NumberFormatException e) {
+					// can't tell where the message ends, and therefore where the next one starts
+					error("Invalid header '" + header + "', stopping");
+					return null;
+				}
+			}
+		}
+		if (length < 0) return null;
+		byte[] content = in.readNBytes(length);
+		if (content.length != length) return null;
+		return new String(content, StandardCharsets.UTF_8);
+	}
+
+	private String readHeaderLine() throws IOException {
+		StringBuilder sb = new StringBuilder();
+		int c;
+		while ((c = in.read()) != '\n') {
+			if (c == -1) return "";
+			if (c != '\r') sb.append((char)c);
+		}
+		return sb.toString();
+	}
+
+	private void respond(Object id, Object result) throws IOException {
+		var response = new LinkedHashMap<String, Object>();
+		response.put("jsonrpc", "2.0");
+		response.put("id", id);
+		response.put("result", result);
+		send(response);
+	}
+
+	private void respondError(Object id, int code, String message) throws IOException {
+		var response = new LinkedHashMap<String, Object>();
+		response.put("jsonrpc", "2.0");
+		response.put("id", id);
+		response.put("error", Map.of("code", code, "message", message));
+		send(response);
+	}
+
+	private void notify(String method, Object params) throws IOException {
+		send(Map.of("jsonrpc", "2.0", "method", method, "params", params));
+	}
+
+	private void send(Map<String, Object> message) throws IOException {
+		byte[] content = Json.write(message).getBytes(StandardCharsets.UTF_8);
+		out.write(("Content-Length: " + content.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+		out.write(content);
+		out.flush();
+	}
+}
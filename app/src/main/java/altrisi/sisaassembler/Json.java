@@ -0,0 +1,218 @@
+package altrisi.sisaassembler;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON support for the {@link DiagnosticsServer}, not worth a dependency.<p>
+ * Objects are read as {@link Map}s, arrays as {@link List}s, numbers as {@link Long} if integral and {@link Double} otherwise.
+ */
+class Json {
+	private final String str;
+	private int pos;
+
+	private Json(String str) {
+		this.str = str;
+	}
+
+	static Object parse(String str) {
+		Json json = new Json(str);
+		Object value = json.value();
+		json.skipWhitespace();
+		if (json.pos != str.length()) throw json.error("Trailing characters");
+		return value;
+	}
+
+	private Object value() {
+		skipWhitespace();
+		if (pos >= str.length()) throw error("Unexpected end");
+		char c = str.charAt(pos);
+		return switch (c) {
+			case '{' -> object();
+			case '[' -> array();
+			case '"' -> string();
+			case 't' -> literal("true", Boolean.TRUE);
+			case 'f' -> literal("false", Boolean.FALSE);
+			case 'n' -> literal("null", null);
+			default -> number();
+		};
+	}
+
+	private Map<String, Object> object() {
+		Map<String, Object> map = new LinkedHashMap<>();
+		pos++;
+		skipWhitespace();
+		if (peek() == '}') {
+			pos++;
+			return map;
+		}
+		while (true) {
+			skipWhitespace();
+			if (peek() != '"') throw error("Expected key");
+			String key = string();
+			skipWhitespace();
+			expect(':');
+			map.put(key, value());
+			skipWhitespace();
+			if (peek() == ',') {
+				pos++;
+			} else {
+				expect('}');
+				return map;
+			}
+		}
+	}
+
+	private List<Object> array() {
+		List<Object> list = new ArrayList<>();
+		pos++;
+		skipWhitespace();
+		if (peek() == ']') {
+			pos++;
+			return list;
+		}
+		while (true) {
+			list.add(value());
+			skipWhitespace();
+			if (peek() == ',') {
+				pos++;
+			} else {
+				expect(']');
+				return list;
+			}
+		}
+	}
+
+	private String string() {
+		pos++;
+		StringBuilder sb = new StringBuilder();
+		while (true) {
+			if (pos >= str.length()) throw error("Unterminated string");
+			char c = str.charAt(pos++);
+			if (c == '"') return sb.toString();
+			if (c != '\\') {
+				sb.append(c);
+				continue;
+			}
+			if (pos >= str.length()) throw error("Unterminated string");
+			char escaped = str.charAt(pos++);
+			switch (escaped) {
+				case 'n' -> sb.append('\n');
+				case 'r' -> sb.append('\r');
+				case 't' -> sb.append('\t');
+				case 'b' -> sb.append('\b');
+				case 'f' -> sb.append('\f');
+				case 'u' -> {
+					int code = 0;
+					for (int end = pos + 4; pos < end; pos++) {
+						char hex = pos < str.length() ? str.charAt(pos) : 'x';
+						int digit = hex < 128 ? Character.digit(hex, 16) : -1; // only ascii digits
+						if (digit < 0) throw error("Invalid unicode escape");
+						code = code << 4 | digit;
+					}
+					sb.append((char)code);
+				}
+				case '"', '\\', '/' -> sb.append(escaped);
+				default -> throw error("Invalid escape '\\" + escaped + "'");
+			}
+		}
+	}
+
+	private Object literal(String literal, Object value) {
+		if (!str.startsWith(literal, pos)) throw error("Invalid literal");
+		pos += literal.length();
+		return value;
+	}
+
+	private Number number() {
+		int start = pos;
+		while (pos < str.length() && "+-0123456789.eE".indexOf(str.charAt(pos)) >= 0) pos++;
+		String num = str.substring(start, pos);
+		try {
+			if (num.indexOf('.') < 0 && num.indexOf('e') < 0 && num.indexOf('E') < 0) {
+				return Long.parseLong(num);
+			}
+			return Double.parseDouble(num);
+		} catch (NumberFormatException e) {
+			throw error("Invalid number '" + num + "'");
+		}
+	}
+
+	private char peek() {
+		if (pos >= str.length()) throw error("Unexpected end");
+		return str.charAt(pos);
+	}
+
+	private void expect(char c) {
+		if (peek() != c) throw error("Expected '" + c + "'");
+		pos++;
+	}
+
+	private void skipWhitespace() {
+		while (pos < str.length() && Character.isWhitespace(str.charAt(pos))) pos++;
+	}
+
+	private IllegalArgumentException error(String msg) {
+		return new IllegalArgumentException(msg + " at position " + pos);
+	}
+
+	static String write(Object value) {
+		StringBuilder sb = new StringBuilder();
+		write(value, sb);
+		return sb.toString();
+	}
+
+	private static void write(Object value, StringBuilder sb) {
+		if (value == null) {
+			sb.append("null");
+		} else if (value instanceof String s) {
+			writeString(s, sb);
+		} else if (value instanceof Number || value instanceof Boolean) {
+			sb.append(value);
+		} else if (value instanceof Map<?, ?> map) {
+			sb.append('{');
+			boolean first = true;
+			for (var entry : map.entrySet()) {
+				if (!first) sb.append(',');
+				first = false;
+				writeString(entry.getKey().toString(), sb);
+				sb.append(':');
+				write(entry.getValue(), sb);
+			}
+			sb.append('}');
+		} else if (value instanceof List<?> list) {
+			sb.append('[');
+			for (int i = 0; i < list.size(); i++) {
+				if (i != 0) sb.append(',');
+				write(list.get(i), sb);
+			}
+			sb.append(']');
+		} else {
+			throw new IllegalArgumentException("Can't write " + value.getClass() + " as JSON");
+		}
+	}
+
+	private static void writeString(String s, StringBuilder sb) {
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '"' -> sb.append("\\\"");
+				case '\\' -> sb.append("\\\\");
+				case '\n' -> sb.append("\\n");
+				case '\r' -> sb.append("\\r");
+				case '\t' -> sb.append("\\t");
+				default -> {
+					if (c < 0x20) {
+						sb.append(String.format("\\u%04x", (int)c));
+					} else {
+						sb.append(c);
+					}
+				}
+			}
+		}
+		sb.append('"');
+	}
+}
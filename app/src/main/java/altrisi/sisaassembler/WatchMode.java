@@ -0,0 +1,137 @@
+package altrisi.sisaassembler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardOpenOption.*;
+import static java.nio.file.StandardWatchEventKinds.*;
+import static altrisi.sisaassembler.Logging.*;
+
+/**
+ * Assembles a file every time it changes, only assembling the lines that changed and, if no instructions moved,
+ * only writing the instructions that changed into the existing output.<p>
+ *
+ * Failing to read the file, for example while an editor replaces it, is reported and waits for the next change.
+ */
+class WatchMode {
+	static final long DEBOUNCE_MILLIS = 50;
+	private final Path in;
+	private final Path out;
+	private final IncrementalAssembly assembly;
+	// whether the output doesn't match the last successful assembly, because it failed after it
+	private boolean outputStale = true;
+
+	private WatchMode(Path in, Path out) {
+		this.in = in;
+		this.out = out;
+		this.assembly = new IncrementalAssembly(in);
+	}
+
+	static void run(Path in, Path out) throws IOException {
+		new WatchMode(in, out).watch();
+	}
+
+	private void watch() throws IOException {
+		Path fileName = in.getFileName();
+		Path dir = in.toAbsolutePath().getParent();
+		try (var service = dir.getFileSystem().newWatchService()) {
+			dir.register(service, ENTRY_CREATE, ENTRY_MODIFY);
+			update();
+			info("Watching " + in + " for changes");
+			while (true) {
+				awaitChange(service, fileName);
+				update();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Waits until the given file in the watched directory changes, and then until no changes happen for
+	 * {@link #DEBOUNCE_MILLIS}, given editors usually write a few times per save
+	 */
+	static void awaitChange(WatchService service, Path fileName) throws InterruptedException {
+		boolean changed = false;
+		while (!changed) {
+			WatchKey key = service.take();
+			changed = key.pollEvents().stream().anyMatch(e -> fileName.equals(e.context()));
+			key.reset();
+		}
+		WatchKey key;
+		while ((key = service.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+			key.pollEvents();
+			key.reset();
+		}
+	}
+
+	private void update() throws IOException {
+		long start = System.nanoTime();
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(in);
+		} catch (IOException e) {
+			outputStale = true;
+			error("Couldn't read " + in + ", not updating " + out.getFileName(), e);
+			return;
+		}
+		var change = assembly.update(lines);
+		for (int i = change.from(); i < change.newTo(); i++) {
+			for (var failure : assembly.line(i).failures()) {
+				error("Compilation error in line " + failure.lineNo() + ": " + failure.line(), failure.exception());
+			}
+		}
+		if (assembly.errors() != 0) {
+			outputStale = true;
+			info("Compilation failed with " + assembly.errors() + " error(s), not updating " + out.getFileName());
+			return;
+		}
+
+		String result;
+		if (outputStale || change.moved()) {
+			Files.write(out, assembly.code());
+			outputStale = false;
+			result = "Wrote " + out.getFileName();
+		} else {
+			int patched = patch(out, assembly.offsetOf(change.from()), change.oldCode(), change.newCode());
+			result = "Patched " + patched + " instruction(s) in " + out.getFileName();
+		}
+		long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+		info(result + " after assembling " + (change.newTo() - change.from()) + " line(s), in " + micros + "us");
+	}
+
+	/**
+	 * Writes the runs of instructions that differ between the old and new code, of the same length, into the given file
+	 * at the given offset, without touching the rest of it
+	 * @return The amount of instructions written
+	 */
+	static int patch(Path out, int offset, byte[] oldCode, byte[] newCode) throws IOException {
+		int patched = 0;
+		try (var channel = FileChannel.open(out, WRITE)) {
+			int i = 0;
+			while (i < newCode.length) {
+				if (sameWord(oldCode, newCode, i)) {
+					i += 2;
+					continue;
+				}
+				int end = i + 2;
+				while (end < newCode.length && !sameWord(oldCode, newCode, end)) end += 2;
+				ByteBuffer run = ByteBuffer.wrap(newCode, i, end - i);
+				while (run.hasRemaining()) {
+					channel.write(run, offset + run.position());
+				}
+				patched += (end - i) / 2;
+				i = end;
+			}
+		}
+		return patched;
+	}
+
+	private static boolean sameWord(byte[] a, byte[] b, int i) {
+		return a[i] == b[i] && a[i + 1] == b[i + 1];
+	}
+}
@@ -0,0 +1,65 @@
+package altrisi.sisaassembler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class CorpusGeneratorTest {
+	private static String generate(long seed, double errorRate, int lines) throws IOException {
+		var out = new StringWriter();
+		new CorpusGenerator(seed, errorRate).write(out, lines);
+		return out.toString();
+	}
+
+	private static int errors(String corpus, OutputFormat format) throws IOException {
+		try (var assembler = new Assembler(new ByteArrayOutputStream(), format) {
+				@Override
+				public void failedLine(String line, int lineNo, AssembleException exception) {}
+			}) {
+			assembler.assemble(corpus.lines());
+			return assembler.errors();
+		}
+	}
+
+	@Test
+	void reproducible() throws Exception {
+		assertEquals(generate(42, 0.01, 1000), generate(42, 0.01, 1000));
+		assertNotEquals(generate(42, 0.01, 1000), generate(43, 0.01, 1000));
+	}
+
+	@Test
+	void coversEveryMnemonic() throws Exception {
+		Set<String> seen = new HashSet<>();
+		for (String line : generate(1, 0, 100).lines().toList()) {
+			line = Utils.trimIncludingComments(Utils.LABEL.matcher(line.strip()).replaceFirst(""));
+			if (!line.isEmpty()) seen.add(Utils.MULTI_WHITESPACE.split(line, 2)[0]);
+		}
+		assertTrue(seen.containsAll(Assembler.instructions().keySet()), "Missing instructions");
+		assertTrue(seen.containsAll(Assembler.pseudoInstructions().keySet()), "Missing pseudo-instructions");
+	}
+
+	@Test
+	void validCorpusAssembles() throws Exception {
+		String corpus = generate(7, 0, 20_000);
+		for (OutputFormat format : new OutputFormat[] {OutputFormat.RAW, OutputFormat.LISTING, OutputFormat.OBJECT}) {
+			assertEquals(0, errors(corpus, format));
+		}
+	}
+
+	@Test
+	void errorRate() throws Exception {
+		var generator = new CorpusGenerator(3, 0.05);
+		var out = new StringWriter();
+		generator.write(out, 20_000);
+		assertTrue(generator.errors() > 500 && generator.errors() < 1000, "Unexpected amount of errors: " + generator.errors());
+		assertEquals(generator.errors(), errors(out.toString(), OutputFormat.RAW));
+	}
+}
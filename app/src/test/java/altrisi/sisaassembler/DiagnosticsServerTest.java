@@ -0,0 +1,133 @@
+package altrisi.sisaassembler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class DiagnosticsServerTest {
+	private static final String URI = "untitled:Main";
+
+	private final ByteArrayOutputStream script = new ByteArrayOutputStream();
+	private List<Map<?, ?>> received;
+
+	private void send(String message) {
+		byte[] content = message.getBytes(StandardCharsets.UTF_8);
+		script.writeBytes(("Content-Length: " + content.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+		script.writeBytes(content);
+	}
+
+	private void send(Map<String, Object> message) {
+		send(Json.write(message));
+	}
+
+	private void request(int id, String method, Object params) {
+		send(Map.of("jsonrpc", "2.0", "id", id, "method", method, "params", params));
+	}
+
+	private void notification(String method, Object params) {
+		send(Map.of("jsonrpc", "2.0", "method", method, "params", params));
+	}
+
+	private void change(int startLine, int startChar, int endLine, int endChar, String text) {
+		var range = Map.of(
+				"start", Map.of("line", startLine, "character", startChar),
+				"end", Map.of("line", endLine, "character", endChar));
+		notification("textDocument/didChange", Map.of(
+				"textDocument", Map.of("uri", URI, "version", 2),
+				"contentChanges", List.of(Map.of("range", range, "text", text))));
+	}
+
+	private int run() throws IOException {
+		var out = new ByteArrayOutputStream();
+		int exitCode = new DiagnosticsServer(new ByteArrayInputStream(script.toByteArray()), out).run();
+		received = new ArrayList<>();
+		byte[] bytes = out.toByteArray();
+		int pos = 0;
+		while (pos < bytes.length) {
+			int headerEnd = new String(bytes, pos, bytes.length - pos, StandardCharsets.US_ASCII).indexOf("\r\n\r\n");
+			String header = new String(bytes, pos, headerEnd, StandardCharsets.US_ASCII);
+			int length = Integer.parseInt(header.substring("Content-Length: ".length()));
+			pos += headerEnd + 4;
+			received.add((Map<?, ?>)Json.parse(new String(bytes, pos, length, StandardCharsets.UTF_8)));
+			pos += length;
+		}
+		return exitCode;
+	}
+
+	// lines with errors in every publishDiagnostics sent
+	private List<List<Long>> diagnosedLines() {
+		List<List<Long>> published = new ArrayList<>();
+		for (var message : received) {
+			if (!"textDocument/publishDiagnostics".equals(message.get("method"))) continue;
+			var params = (Map<?, ?>)message.get("params");
+			assertEquals(URI, params.get("uri"));
+			List<Long> lines = new ArrayList<>();
+			for (Object diagnostic : (List<?>)params.get("diagnostics")) {
+				var start = (Map<?, ?>)((Map<?, ?>)((Map<?, ?>)diagnostic).get("range")).get("start");
+				lines.add((Long)start.get("line"));
+			}
+			published.add(lines);
+		}
+		return published;
+	}
+
+	private Map<?, ?> response(long id) {
+		return received.stream().filter(m -> Long.valueOf(id).equals(m.get("id"))).findFirst().orElseThrow();
+	}
+
+	@Test
+	void publishesDiagnostics() throws Exception {
+		request(1, "initialize", Map.of("capabilities", Map.of()));
+		notification("initialized", Map.of());
+		notification("textDocument/didOpen", Map.of("textDocument", Map.of(
+				"uri", URI, "languageId", "sisa", "version", 1, "text", "ADD R0, R1, R2\nNOPE R1\n")));
+		change(0, 0, 0, 0, "MOVI R1, 1\nMOVI R2, 2\n"); // moves the error down
+		change(3, 2, 3, 4, "T"); // NOTE R1, still an error
+		change(3, 0, 3, 7, "SUB R1, R2, R3");
+		notification("textDocument/didChange", Map.of( // whole document
+				"textDocument", Map.of("uri", URI, "version", 5),
+				"contentChanges", List.of(Map.of("text", ".macro CLEAR r\nXOR r, r, r\n.endm\nCLEAR R1\nCLEAR\n"))));
+		notification("textDocument/didClose", Map.of("textDocument", Map.of("uri", URI)));
+		request(2, "shutdown", Map.of());
+		notification("exit", Map.of());
+
+		assertEquals(0, run());
+		var capabilities = (Map<?, ?>)((Map<?, ?>)response(1).get("result")).get("capabilities");
+		assertEquals(2L, ((Map<?, ?>)capabilities.get("textDocumentSync")).get("change"));
+		assertEquals(List.of(List.of(1L), List.of(3L), List.of(3L), List.of(), List.of(4L), List.of()), diagnosedLines());
+		assertEquals(null, response(2).get("result"));
+	}
+
+	@Test
+	void reportsInvalidMessages() throws Exception {
+		send("{\"jsonrpc\": \"2.0\", \"id\": 1, \"method\": ");
+		request(2, "textDocument/hover", Map.of());
+		request(3, "textDocument/didOpen", Map.of());
+		notification("exit", Map.of()); // without shutdown
+
+		assertEquals(1, run());
+		assertEquals(3, received.size());
+		assertEquals(-32700L, ((Map<?, ?>)received.get(0).get("error")).get("code"));
+		assertEquals(-32601L, ((Map<?, ?>)response(2).get("error")).get("code"));
+		assertEquals(-32602L, ((Map<?, ?>)response(3).get("error")).get("code"));
+	}
+
+	@Test
+	void stopsOnInvalidHeaders() throws Exception {
+		request(1, "initialize", Map.of("capabilities", Map.of()));
+		script.writeBytes("Content-Length: abc\r\n\r\n{}".getBytes(StandardCharsets.US_ASCII));
+		request(2, "shutdown", Map.of());
+
+		assertEquals(1, run());
+		assertEquals(1, received.size());
+		assertEquals(1L, received.get(0).get("id"));
+	}
+}
@@ -0,0 +1,44 @@
+package altrisi.sisaassembler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class JsonTest {
+	@Test
+	void parsesValues() {
+		assertEquals(Map.of("a", List.of(1L, -2L, 1.5, 1e3), "b", Map.of(), "c", true, "d", false),
+				Json.parse(" {\"a\": [1, -2, 1.5, 1E3], \"b\": {}, \"c\": true, \"d\": false}\n"));
+		assertEquals(Arrays.asList(null, List.of(), ""), Json.parse("[null,[],\"\"]"));
+		assertNull(Json.parse("null"));
+	}
+
+	@Test
+	void escapes() {
+		assertEquals("a\"b\\c/d\n\t\r\b\f", Json.parse("\"a\\\"b\\\\c\\/d\\n\\t\\r\\b\\f\""));
+		assertEquals("\u00e9\u20ACABC", Json.parse("\"\\u00e9\\u20AC\\u0041BC\""));
+		assertEquals("\uD83D\uDE00", Json.parse("\"\\ud83d\\ude00\""));
+	}
+
+	@Test
+	void roundTrips() {
+		var value = Map.of("text", "quote \" slash \\ line\r\n\u0001\u001F \u00e9", "list", List.of(1L, true));
+		assertEquals(value, Json.parse(Json.write(value)));
+		assertEquals("\"\\u0001\"", Json.write("\u0001"));
+	}
+
+	@Test
+	void rejectsInvalidInput() {
+		for (String invalid : List.of("", " ", "{", "}", "[1,]", "[1 2]", "{\"a\" 1}", "{a: 1}", "{\"a\": 1,}", "\"abc",
+				"\"abc\\", "\"\\u12\"", "\"\\u12zz\"", "\"\\u+123\"", "\"\\u\u0661\u0662\u0663\u0664\"", "\"\\x\"", "nul", "truth", "1 2", "-", "1.2.3", "@")) {
+			assertThrows(IllegalArgumentException.class, () -> Json.parse(invalid), invalid);
+		}
+		assertThrows(IllegalArgumentException.class, () -> Json.write(new Object()));
+	}
+}
@@ -0,0 +1,166 @@
+package altrisi.sisaassembler;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.Watchable;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class WatchModeTest {
+	@TempDir
+	Path dir;
+
+	@Test
+	void patchesChangedRuns() throws Exception {
+		Path out = Files.write(dir.resolve("out.bin"), new byte[] {1, 0, 2, 0, 3, 0, 4, 0, 5, 0});
+		byte[] oldCode = {2, 0, 3, 0, 4, 0, 5, 0};
+		byte[] newCode = {6, 0, 3, 0, 7, 0, 8, 0};
+		assertEquals(3, WatchMode.patch(out, 2, oldCode, newCode));
+		assertArrayEquals(new byte[] {1, 0, 6, 0, 3, 0, 7, 0, 8, 0}, Files.readAllBytes(out));
+
+		assertEquals(0, WatchMode.patch(out, 2, newCode, newCode));
+		assertArrayEquals(new byte[] {1, 0, 6, 0, 3, 0, 7, 0, 8, 0}, Files.readAllBytes(out));
+	}
+
+	@Test
+	void debouncesChanges() throws Exception {
+		Path file = Path.of("main.sisa");
+		var keys = new Key[] {new Key("other.sisa"), new Key("main.sisa"), new Key("main.sisa"), new Key("other.sisa")};
+		var service = new Service(keys);
+		WatchMode.awaitChange(service, file);
+		assertNull(service.poll()); // waited until the burst of changes ended
+		for (Key key : keys) assertTrue(key.reset);
+
+		// other files in the directory don't count
+		assertThrows(InterruptedException.class, () -> WatchMode.awaitChange(new Service(new Key("other.sisa")), file));
+	}
+
+	@Test
+	void keepsWatchingUnreadableFiles() throws Exception {
+		Path in = dir.resolve("main.sisa");
+		Path out = dir.resolve("main.bin");
+		var failure = new AtomicReference<IOException>();
+		var watcher = new Thread(() -> {
+			try {
+				WatchMode.run(in, out);
+			} catch (IOException e) {
+				failure.set(e);
+			}
+		});
+		watcher.start();
+		try {
+			// doesn't exist yet
+			Thread.sleep(200);
+			assertTrue(watcher.isAlive(), "Stopped watching");
+			Files.writeString(in, "MOVI R1, 1");
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while (!(Files.exists(out) && Files.size(out) == 2) && System.nanoTime() < deadline) {
+				Thread.sleep(WatchMode.DEBOUNCE_MILLIS);
+			}
+			var expected = new ByteArrayOutputStream();
+			try (var assembler = new Assembler(expected)) {
+				assembler.assemble(Stream.of("MOVI R1, 1"));
+			}
+			assertArrayEquals(expected.toByteArray(), Files.readAllBytes(out));
+		} finally {
+			watcher.interrupt();
+			watcher.join();
+		}
+		assertNull(failure.get());
+	}
+
+	private static final class Key implements WatchKey {
+		private final Path file;
+		boolean reset;
+
+		Key(String file) {
+			this.file = Path.of(file);
+		}
+
+		@Override
+		public List<WatchEvent<?>> pollEvents() {
+			return List.of(new WatchEvent<Path>() {
+				@Override
+				public Kind<Path> kind() {
+					return StandardWatchEventKinds.ENTRY_MODIFY;
+				}
+
+				@Override
+				public int count() {
+					return 1;
+				}
+
+				@Override
+				public Path context() {
+					return file;
+				}
+			});
+		}
+
+		@Override
+		public boolean reset() {
+			reset = true;
+			return true;
+		}
+
+		@Override
+		public boolean isValid() {
+			return true;
+		}
+
+		@Override
+		public void cancel() {}
+
+		@Override
+		public Watchable watchable() {
+			return null;
+		}
+	}
+
+	// hands out the given keys, as if they all came at once
+	private static final class Service implements WatchService {
+		private final Queue<WatchKey> keys = new ArrayDeque<>();
+
+		Service(WatchKey... keys) {
+			this.keys.addAll(List.of(keys));
+		}
+
+		@Override
+		public WatchKey take() throws InterruptedException {
+			if (keys.isEmpty()) throw new InterruptedException("Would wait forever");
+			return keys.remove();
+		}
+
+		@Override
+		public WatchKey poll() {
+			return keys.poll();
+		}
+
+		@Override
+		public WatchKey poll(long timeout, TimeUnit unit) {
+			return keys.poll();
+		}
+
+		@Override
+		public void close() {}
+	}
+}
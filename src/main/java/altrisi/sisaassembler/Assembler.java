@@ -1,21 +1,26 @@
 package altrisi.sisaassembler;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
 import java.util.*;
+import java.util.regex.Matcher;
 import java.util.stream.Stream;
 
 import altrisi.sisaassembler.InstructionAssembler.*;
+import altrisi.sisaassembler.OutputFormat.WordWriter;
+import altrisi.sisaassembler.Utils.SymbolRef;
 
 import static java.nio.file.StandardOpenOption.*;
 import static java.util.Map.entry;
-import static java.util.function.Predicate.not;
 import static altrisi.sisaassembler.Logging.*;
 import static altrisi.sisaassembler.Utils.*;
 import static altrisi.sisaassembler.Instructions.*;
 
 /**
- * The main (and only other than {@link AssembleException}) class for usage as an API, see the 
+ * The main class for usage as an API (along with {@link AssembleException} and {@link OutputFormat}), see the 
  * constructors ({@link #Assembler(Path)} and {@link #Assembler(OutputStream)}), the {@code assemble} 
  * methods ({@link #assemble(Path)} and {@link #assemble(Stream)}), and in order to be able
  * to handle errors override {@link #failedLine(String, int, AssembleException)}.<p>
@@ -24,14 +29,45 @@ import static altrisi.sisaassembler.Instructions.*;
  * in order to allow its {@link OutputStream} to be closed.<p>
  * 
  * Tip: You can pass a {@link ByteArrayOutputStream} to {@link #Assembler(OutputStream) the constructor} in order
- * for the assembler to just write to an array.
+ * for the assembler to just write to an array.<p>
+ * 
+ * By default the output is in raw little-endian bytes, other formats can be chosen by passing an {@link OutputFormat}
+ * to the constructor.
  * 
  * @author altrisi
  */
 public class Assembler implements Closeable {
 	private final OutputStream out;
+	private final WordWriter writer;
+	private final boolean relocatable;
+	private final Set<String> labels = new HashSet<>();
 	private int errors;
+	private int address;
+	// symbol referenced by the instruction being assembled, if any
+	private String referencedSymbol;
+	private Relocation relocationType;
+	private PeepholeOptimizer optimizer;
+	// file being assembled, if any, and the files that included it
+	private Path sourceFile;
+	private List<Path> includeChain = List.of();
+	// every file included so far, directly or not, with the modification time it was assembled with
+	private final Map<Path, FileTime> includes = new HashMap<>();
 	private final byte[] instructionBuff = new byte[2];
+	private final Map<String, Macro> macros = new HashMap<>(BUILTIN_MACROS);
+	// for incremental assembly: macros defined by lines after the ones being assembled, and the macro the last line defined
+	private Set<String> hiddenMacros = Set.of();
+	private String definedMacro;
+	// macro being defined, if any
+	private String macroName;
+	private List<String> macroParams;
+	private List<Macro.Body> macroBody;
+	private int macroLine;
+	private String macroSource;
+	// reused for expanding macros, grown as needed
+	private short[] expansion = new short[2];
+	private SymbolRef[] expansionSymbols = new SymbolRef[2];
+	// how many bytes of a .fill are written at a time
+	private static final int FILL_CHUNK = 8192;
 	private static final boolean LEFT = true;
 	private static final boolean RIGHT = false;
 	private static final Map<String, InstructionAssembler> HANDLERS = Map.ofEntries(
@@ -39,7 +75,6 @@ public class Assembler implements Closeable {
 			reg3("AND", OPS, AND),
 			reg3("OR",  OPS, OR ),
 			reg3("XOR", OPS, XOR),
-			entry("NOT", (line, bytes) -> new Reg3(OPS, NOT).assemble(line + ", R0", bytes)),
 			reg3("ADD", OPS, ADD),
 			reg3("SUB", OPS, SUB),
 			reg3("SHA", OPS, SHA),
@@ -56,13 +91,18 @@ public class Assembler implements Closeable {
 			mem("ST", ST, LEFT),
 			mem("LDB", LDB, RIGHT),
 			mem("STB", STB, LEFT),
-			reg1("BZ",    JUMP, 0, LEFT),
-			reg1("BNZ",   JUMP, 1, LEFT),
+			branch("BZ",  JUMP, 0),
+			branch("BNZ", JUMP, 1),
 			reg1("MOVI",  MOVE, 0, LEFT),
-			reg1("MOVHI", MOVE, 0, LEFT),
+			reg1("MOVHI", MOVE, 1, LEFT),
 			reg1("IN",    IO,   0, LEFT),
 			reg1("OUT",   IO,   1, RIGHT)
 		);
+	// pseudo-instructions, compiled once
+	private static final Map<String, Macro> BUILTIN_MACROS = Map.ofEntries(
+			builtin("NOT", List.of("d", "a"), body(new Reg3(OPS, NOT), "d, a, R0")),
+			builtin("LI",  List.of("d", "v"), body(HANDLERS.get("MOVI"), "d, lo(v)"), body(HANDLERS.get("MOVHI"), "d, hi(v)"))
+		);
 
 	/**
 	 * Creates an Assembler that will output to a file in the given {@link Path},
@@ -71,8 +111,18 @@ public class Assembler implements Closeable {
 	 * @throws IOException If an I/O exception occurs while opening the file
 	 */
 	public Assembler(Path output) throws IOException {
-		debug("Setting output to file " + output);
-		this.out = Files.newOutputStream(output, CREATE, TRUNCATE_EXISTING);
+		this(output, OutputFormat.RAW);
+	}
+
+	/**
+	 * Creates an Assembler that will output to a file in the given {@link Path} in the given {@link OutputFormat},
+	 * creating one if it doesn't exist or truncating it if it does.
+	 * @param output The {@link Path} of the file the Assembler should output to
+	 * @param format The {@link OutputFormat} to write in
+	 * @throws IOException If an I/O exception occurs while opening the file
+	 */
+	public Assembler(Path output, OutputFormat format) throws IOException {
+		this(openOutput(output), format);
 	}
 
 	/**
@@ -82,6 +132,52 @@ public class Assembler implements Closeable {
 	 */
 	public Assembler(OutputStream out) {
 		this.out = Objects.requireNonNull(out);
+		this.writer = new FormatWriters.Raw(out);
+		this.relocatable = false;
+	}
+
+	/**
+	 * Creates an Assembler that will output to the given {@link OutputStream} in the given {@link OutputFormat}.<p>
+	 * The {@link OutputStream} will be closed when invoking the {@link #close()} method
+	 * @param out    The {@link OutputStream} the Assembler should output to
+	 * @param format The {@link OutputFormat} to write in
+	 * @throws IOException If an I/O exception occurs while the format prepares the output
+	 */
+	public Assembler(OutputStream out, OutputFormat format) throws IOException {
+		this.out = Objects.requireNonNull(out);
+		WordWriter formatWriter = format.open(out);
+		this.relocatable = format.relocatable();
+		// the async writer doesn't forward symbols, don't lose them
+		this.writer = format.textual() && !relocatable ? new AsyncWordWriter(formatWriter) : formatWriter;
+	}
+
+	private static OutputStream openOutput(Path output) throws IOException {
+		debug("Setting output to file " + output);
+		if (output.getFileSystem() == FileSystems.getDefault()) {
+			// lets raw output copy included binaries from file to file
+			return new FileOutputStream(output.toFile());
+		}
+		return Files.newOutputStream(output, CREATE, TRUNCATE_EXISTING);
+	}
+
+	/**
+	 * Enables the given {@link Peephole} optimizations for everything assembled after this call.
+	 * See {@link Peephole} for when it's safe to enable them.
+	 * @param rules The rules to enable, an empty {@link Set} disables optimization
+	 * @throws IOException If an I/O exception occurs while writing the instructions that were pending optimization
+	 */
+	public final void optimize(Set<Peephole> rules) throws IOException {
+		if (optimizer != null) {
+			optimizer.flush();
+		}
+		optimizer = rules.isEmpty() ? null : new PeepholeOptimizer(rules, this::write);
+	}
+
+	/**
+	 * @return The amount of instructions removed by {@link #optimize(Set) optimizations}
+	 */
+	public final int optimizedOut() {
+		return optimizer == null ? 0 : optimizer.removed();
 	}
 
 	/**
@@ -92,11 +188,15 @@ public class Assembler implements Closeable {
 	 */
 	public final void assemble(Path input) throws IOException {
 		debug("Starting assembly of file " + input);
+		Path previousSource = sourceFile;
+		sourceFile = input.toAbsolutePath().normalize();
 		try (var lines = Files.lines(input)) {
 			assemble(lines);
 		} catch (UncheckedIOException e) {
 			// the Stream has to throw those as the terminal operation can't throw checked. Propogate it ourselves
 			throw e.getCause();
+		} finally {
+			sourceFile = previousSource;
 		}
 	}
 
@@ -108,19 +208,118 @@ public class Assembler implements Closeable {
 	 */
 	public final void assemble(Stream<String> instructions) throws IOException {
 		debugSeparator();
-		int lineNo = 1;
-		for (String line : iterate(instructions.map(Utils::trimIncludingComments).filter(not(String::isEmpty)))) {
+		int lineNo = 0;
+		for (String line : iterate(instructions)) {
+			lineNo++; // count empty lines too, so line numbers match the source
+			line = trimIncludingComments(line);
+			if (line.isEmpty()) continue;
 			parseLine(lineNo, line);
-			lineNo++;
 			debugSeparator();
 		}
+		finishLines();
+		if (optimizer != null) optimizer.flush();
+		writer.flush();
 		if (!failed()) debug("Finished compilation of " + lineNo + " lines");
 	}
 
+	/**
+	 * Sets the file lines passed to {@link #assembleLine(int, String)} come from, to resolve includes against
+	 */
+	final void sourceFile(Path file) {
+		sourceFile = file == null ? null : file.toAbsolutePath().normalize();
+	}
+
+	/**
+	 * Assembles a single line on its own, for incremental assembly. Labels and addresses don't carry over between calls,
+	 * macros do: a macro being defined takes the next lines, and defined ones stay usable unless {@link #hideMacros(Set) hidden}
+	 * @see #definedMacro()
+	 * @see #finishLines()
+	 * @see #resetMacros()
+	 */
+	final void assembleLine(int lineNo, String line) throws IOException {
+		labels.clear();
+		address = 0;
+		definedMacro = null;
+		line = trimIncludingComments(line);
+		if (line.isEmpty()) return;
+		parseLine(lineNo, line);
+	}
+
+	/**
+	 * @return Whether lines are being taken by a macro definition
+	 */
+	final boolean definingMacro() {
+		return macroBody != null;
+	}
+
+	/**
+	 * Reports a macro definition that was never ended, once there are no more lines
+	 */
+	final void finishLines() {
+		if (macroBody != null) {
+			if (macroName != null) {
+				failLine(macroSource, macroLine, new AssembleException("Macro '" + macroName + "' is missing its .endm"));
+			}
+			macroBody = null;
+		}
+	}
+
+	/**
+	 * @return The macro the last line passed to {@link #assembleLine(int, String)} defined, if any
+	 */
+	final String definedMacro() {
+		return definedMacro;
+	}
+
+	/**
+	 * Makes the given macros unusable until hidden ones are set again, for lines that come before their definitions
+	 */
+	final void hideMacros(Set<String> names) {
+		hiddenMacros = names;
+	}
+
+	/**
+	 * Forgets every macro defined so far, and the one being defined if any, to assemble lines from the start again
+	 */
+	final void resetMacros() {
+		macros.clear();
+		macros.putAll(BUILTIN_MACROS);
+		hiddenMacros = Set.of();
+		macroBody = null;
+	}
+
 	private void parseLine(int lineNo, String str) throws IOException {
 		debug("Assembling instruction '" + str + "'" + " in line " + lineNo);
+		if (macroBody != null) {
+			macroLine(lineNo, str);
+			return;
+		}
+
+		Matcher label = LABEL.matcher(str);
+		if (label.lookingAt()) {
+			String name = label.group(1);
+			if (!labels.add(name)) {
+				failLine(str, lineNo, new AssembleException("Label '" + name + "' is already defined"));
+				return;
+			}
+			if (optimizer != null) optimizer.flush(); // don't optimize across labels, and get the actual address
+			debug("Defining label " + name + " at 0x" + Integer.toHexString(address));
+			writer.defineSymbol(name, address);
+			str = str.substring(label.end());
+			if (str.isEmpty()) return;
+		}
+
+		if (str.charAt(0) == '.') {
+			directive(lineNo, str);
+			return;
+		}
 
 		String[] decomposed = MULTI_WHITESPACE.split(str, 2);
+		Macro macro = macros.get(decomposed[0]);
+		if (macro != null && !hiddenMacros.contains(macro.name)) {
+			expand(lineNo, str, macro, decomposed.length == 1 ? "" : decomposed[1]);
+			return;
+		}
 		InstructionAssembler operation = HANDLERS.get(decomposed[0]);
 
 		if (operation == null) {
@@ -130,15 +329,308 @@ public class Assembler implements Closeable {
 		} else {
 			debug("Using operator: " + operation);
 			try {
-				operation.assemble(decomposed[1], instructionBuff);
+				referencedSymbol = null;
+				operation.assemble(decomposed[1], instructionBuff, this::reference);
 				if (verbose) // guard for expensive enough 2x String conversion
 					debug("Compiled to 0x" + shortToString(instructionBuff, HEX).toUpperCase() + " (" + shortToString(instructionBuff, BIN) + ")");
-				out.write(instructionBuff);
+				short word = (short)((instructionBuff[1] << 8) | (instructionBuff[0] & 0xFF));
+				if (optimizer != null) {
+					optimizer.push(word, str, relocationType, referencedSymbol);
+				} else {
+					write(word, str, relocationType, referencedSymbol);
+				}
 			} catch (AssembleException e) {
 				failLine(str, lineNo, e);
 			}
 		}
 	}
+
+	private void directive(int lineNo, String str) throws IOException {
+		String[] decomposed = MULTI_WHITESPACE.split(str, 2);
+		String args = decomposed.length == 1 ? "" : decomposed[1];
+		try {
+			switch (decomposed[0]) {
+				case ".include" -> include(lineNo, str, parseString(args));
+				case ".word" -> words(str, args);
+				case ".byte" -> bytes(str, args);
+				case ".fill" -> fill(str, args);
+				case ".incbin" -> incbin(str, parseString(args));
+				case ".macro" -> startMacro(lineNo, str, args);
+				case ".endm" -> throw new AssembleException(".endm without a .macro");
+				default -> throw new AssembleException("Directive '" + decomposed[0] + "' not found");
+			}
+		} catch (AssembleException e) {
+			failLine(str, lineNo, e);
+		}
+	}
+
+	/**
+	 * Copies the given file, assembled once and {@link ModuleCache cached}, into the output.
+	 * Relative paths are resolved against the directory of the file being assembled
+	 */
+	private void include(int lineNo, String str, String name) throws IOException, AssembleException {
+		Path file = resolve(name);
+		if (file.equals(sourceFile) || includeChain.contains(file)) {
+			throw new AssembleException("Cyclic include of " + file);
+		}
+		ModuleCache.Module module;
+		try {
+			module = ModuleCache.get(file, this::parseModule);
+		} catch (NoSuchFileException e) {
+			throw new AssembleException("Included file not found: " + file, e);
+		}
+		debug("Including " + module.code().length / 2 + " instructions from " + file);
+		includes.put(file, module.modified());
+		includes.putAll(module.includes());
+
+		for (var failure : module.failures()) {
+			failLine(failure.line(), failure.lineNo(), new AssembleException("In included file " + file + ": "
+					+ failure.exception().getMessage(), failure.exception()));
+		}
+		if (!relocatable && module.symbols().length != 0) {
+			throw new AssembleException("Included file " + file + " refers to symbols, which requires a relocatable output format");
+		}
+
+		if (optimizer != null) optimizer.flush(); // included code is copied as is
+		for (int i = 0; i < module.labels().length; i++) {
+			if (!labels.add(module.labels()[i])) {
+				failLine(str, lineNo, new AssembleException("Label '" + module.labels()[i] + "' from " + file + " is already defined"));
+			} else {
+				writer.defineSymbol(module.labels()[i], address + module.labelOffsets()[i]);
+			}
+		}
+		writer.write(address, module.code(), module.sources());
+		for (int i = 0; i < module.symbols().length; i++) {
+			writer.relocate(address + module.relocationOffsets()[i], module.types()[i], module.symbols()[i]);
+		}
+		address += module.code().length;
+	}
+
+	private Path resolve(String name) {
+		return (sourceFile == null ? Path.of(name) : sourceFile.resolveSibling(name)).toAbsolutePath().normalize();
+	}
+
+	// data directives. Data isn't optimized, and is padded to keep instructions aligned
+
+	private void words(String str, String args) throws IOException, AssembleException {
+		String[] strs = dataArguments(args);
+		byte[] data = new byte[strs.length * 2];
+		for (int i = 0; i < strs.length; i++) {
+			int value = parseWideConstant(strs[i]);
+			data[i * 2] = (byte)value;
+			data[i * 2 + 1] = (byte)(value >> 8);
+		}
+		data(str, data);
+	}
+
+	private void bytes(String str, String args) throws IOException, AssembleException {
+		String[] strs = dataArguments(args);
+		byte[] data = new byte[(strs.length + 1) & ~1];
+		for (int i = 0; i < strs.length; i++) {
+			data[i] = parseByteConstant(strs[i]);
+		}
+		data(str, data);
+	}
+
+	private static String[] dataArguments(String args) throws AssembleException {
+		if (args.isEmpty()) {
+			throw new AssembleException("Data directives take at least one value");
+		}
+		return COMMA_SPACE.split(args);
+	}
+
+	private void data(String str, byte[] data) throws IOException {
+		if (optimizer != null) optimizer.flush();
+		String[] sources = new String[data.length / 2];
+		Arrays.fill(sources, str);
+		writer.write(address, data, sources);
+		address += data.length;
+	}
+
+	/**
+	 * Writes {@code .fill count[, value]}: the given amount of words with the given value, 0 by default,
+	 * as big blocks of a single pattern
+	 */
+	private void fill(String str, String args) throws IOException, AssembleException {
+		String[] strs = dataArguments(args);
+		if (strs.length > 2) {
+			throw new AssembleException("Got " + strs.length + " arguments for .fill, expected a count and optionally a value");
+		}
+		int count = parseInt(strs[0]);
+		if (count < 0 || count > (Integer.MAX_VALUE - address) / 2) {
+			throw new AssembleException("Invalid count: " + strs[0]);
+		}
+		int value = strs.length == 2 ? parseWideConstant(strs[1]) : 0;
+		if (optimizer != null) optimizer.flush();
+
+		int chunkWords = Math.min(count, FILL_CHUNK / 2);
+		byte[] chunk = new byte[chunkWords * 2];
+		if (value != 0 && chunkWords != 0) {
+			chunk[0] = (byte)value;
+			chunk[1] = (byte)(value >> 8);
+			for (int filled = 2; filled < chunk.length; filled *= 2) {
+				System.arraycopy(chunk, 0, chunk, filled, Math.min(filled, chunk.length - filled));
+			}
+		}
+		String[] sources = new String[chunkWords];
+		Arrays.fill(sources, str);
+		for (int left = count; left > 0; left -= chunkWords) {
+			if (left < chunkWords) {
+				chunk = Arrays.copyOf(chunk, left * 2);
+				sources = Arrays.copyOf(sources, left);
+			}
+			writer.write(address, chunk, sources);
+			address += chunk.length;
+		}
+	}
+
+	/**
+	 * Copies the contents of a file into the output. Relative paths are resolved like in {@link #include}
+	 */
+	private void incbin(String str, String name) throws IOException, AssembleException {
+		Path file = resolve(name);
+		try (var in = FileChannel.open(file)) {
+			long size = in.size();
+			if (size > Integer.MAX_VALUE - 1 - address) {
+				throw new AssembleException("Included binary " + file + " is too big");
+			}
+			debug("Including " + size + " bytes from " + file);
+			if (optimizer != null) optimizer.flush();
+			long even = size & ~1L;
+			writer.transfer(address, in, even, str);
+			address += (int)even;
+			if (even != size) { // pad the last byte
+				var last = ByteBuffer.allocate(1);
+				in.read(last, even);
+				writer.write(address, (short)(last.get(0) & 0xFF), str);
+				address += 2;
+			}
+		} catch (NoSuchFileException e) {
+			throw new AssembleException("Included binary not found: " + file, e);
+		}
+	}
+
+	private ModuleCache.Module parseModule(Path file, FileTime modified) throws IOException {
+		debug("Parsing included file " + file);
+		var recorder = new ModuleCache.Recorder();
+		var format = new FormatWriters.Format(out -> recorder, false, true);
+		try (Assembler nested = new Assembler(OutputStream.nullOutputStream(), format) {
+				@Override
+				public void failedLine(String line, int lineNo, AssembleException exception) {
+					recorder.failures.add(new ModuleCache.Failure(line, lineNo, exception));
+				}
+			}) {
+			var chain = new ArrayList<>(includeChain);
+			if (sourceFile != null) chain.add(sourceFile);
+			nested.includeChain = chain;
+			nested.assemble(file);
+			return recorder.toModule(modified, nested.includes);
+		}
+	}
+
+	private void startMacro(int lineNo, String str, String args) throws AssembleException {
+		String[] decomposed = MULTI_WHITESPACE.split(args, 2);
+		String name = decomposed[0];
+		// take the body even if the definition is invalid, to not report every line of it
+		macroName = null;
+		macroBody = new ArrayList<>();
+		macroLine = lineNo;
+		macroSource = str;
+		if (!SYMBOL.matcher(name).matches()) {
+			throw new AssembleException("Invalid macro name '" + name + "'");
+		}
+		if (HANDLERS.containsKey(name) || macros.containsKey(name)) {
+			throw new AssembleException("'" + name + "' is already defined");
+		}
+		List<String> params = decomposed.length == 1 ? List.of() : List.of(COMMA_SPACE.split(decomposed[1]));
+		for (String param : params) {
+			if (!param.matches("\\w+") || Collections.frequency(params, param) != 1) {
+				throw new AssembleException("Invalid or repeated parameter '" + param + "'");
+			}
+		}
+		macroName = name;
+		macroParams = params;
+	}
+
+	/**
+	 * Adds a line to the macro being defined, or compiles it on {@code .endm}
+	 */
+	private void macroLine(int lineNo, String str) {
+		String[] decomposed = MULTI_WHITESPACE.split(str, 2);
+		if (decomposed[0].equals(".endm")) {
+			List<Macro.Body> body = macroBody;
+			macroBody = null;
+			if (macroName == null) return; // already reported
+			if (body.isEmpty()) {
+				failLine(str, lineNo, new AssembleException("Macro '" + macroName + "' is empty"));
+				return;
+			}
+			try {
+				macros.put(macroName, Macro.compile(macroName, macroParams, body));
+				definedMacro = macroName;
+				debug("Defined macro " + macroName + " with " + body.size() + " instructions");
+			} catch (Macro.CompileException e) {
+				failLine(e.line.source(), e.line.lineNo(), new AssembleException("In macro '" + macroName + "': " + e.getMessage(), e));
+			}
+			return;
+		}
+		InstructionAssembler operation = HANDLERS.get(decomposed[0]);
+		if (macroName == null) {
+			return;
+		} else if (operation == null) {
+			failLine(str, lineNo, new AssembleException("Macros can only contain instructions, found '" + decomposed[0] + "'"));
+			macroName = null;
+		} else if (decomposed.length == 1) {
+			failLine(str, lineNo, new AssembleException("Operation '" + decomposed[0] + "' takes arguments, found none"));
+			macroName = null;
+		} else {
+			macroBody.add(new Macro.Body(operation, decomposed[1], str, lineNo));
+		}
+	}
+
+	private void expand(int lineNo, String str, Macro macro, String args) throws IOException {
+		if (expansion.length < macro.size()) {
+			expansion = new short[macro.size()];
+			expansionSymbols = new SymbolRef[macro.size()];
+		}
+		try {
+			macro.expand(args, expansion, expansionSymbols);
+			for (int i = 0; i < macro.size(); i++) {
+				if (expansionSymbols[i] != null) reference(expansionSymbols[i].name(), expansionSymbols[i].type());
+			}
+		} catch (AssembleException e) {
+			failLine(str, lineNo, e);
+			return;
+		}
+		debug("Expanded macro " + macro.name + " to " + macro.size() + " instructions");
+		for (int i = 0; i < macro.size(); i++) {
+			SymbolRef symbol = expansionSymbols[i];
+			Relocation type = symbol == null ? null : symbol.type();
+			String name = symbol == null ? null : symbol.name();
+			if (optimizer != null) {
+				optimizer.push(expansion[i], str, type, name);
+			} else {
+				write(expansion[i], str, type, name);
+			}
+		}
+	}
+
+	private void write(short word, String source, Relocation type, String symbol) throws IOException {
+		writer.write(address, word, source);
+		if (symbol != null) {
+			writer.relocate(address, type, symbol);
+		}
+		address += 2;
+	}
+
+	private void reference(String symbol, Relocation type) throws AssembleException {
+		if (!relocatable) {
+			throw new AssembleException("Reference to symbol '" + symbol + "' requires a relocatable output format, such as objects");
+		}
+		debug("Referencing symbol " + symbol + " as " + type);
+		referencedSymbol = symbol;
+		relocationType = type;
+	}
 	
 	/**
 	 * Gets called when a line fails to compile.<p>
@@ -172,10 +664,38 @@ public class Assembler implements Closeable {
 	@Override
 	public void close() throws IOException {
 		debug("Closing output stream");
-		out.close();
+		try (out) {
+			writer.finish();
+		}
+	}
+
+	/**
+	 * @return The instructions the assembler takes, by mnemonic
+	 */
+	static Map<String, InstructionAssembler> instructions() {
+		return HANDLERS;
+	}
+
+	/**
+	 * @return The pseudo-instructions every assembler takes, by mnemonic
+	 */
+	static Map<String, Macro> pseudoInstructions() {
+		return BUILTIN_MACROS;
 	}
 
 	// "Utils" for map creation
+	private static Map.Entry<String, Macro> builtin(String name, List<String> params, Macro.Body... body) {
+		try {
+			return entry(name, Macro.compile(name, params, List.of(body)));
+		} catch (Macro.CompileException e) {
+			throw new AssertionError("Invalid built-in macro " + name, e);
+		}
+	}
+
+	private static Macro.Body body(InstructionAssembler handler, String args) {
+		return new Macro.Body(handler, args, args, 0);
+	}
+
 	private static Map.Entry<String, InstructionAssembler> reg3(String op, byte c, byte f) {
 		return entry(op, new Reg3(c, f));
 	}
@@ -185,7 +705,11 @@ public class Assembler implements Closeable {
 	}
 
 	private static Map.Entry<String, InstructionAssembler> reg1(String op, byte c, int flag, boolean atLeft) {
-		return entry(op, new Reg1(c, (byte)flag, atLeft));
+		return entry(op, new Reg1(c, (byte)flag, atLeft, false));
+	}
+
+	private static Map.Entry<String, InstructionAssembler> branch(String op, byte c, int flag) {
+		return entry(op, new Reg1(c, (byte)flag, LEFT, true));
 	}
 	
 	private static Map.Entry<String, InstructionAssembler> mem(String op, byte c, boolean atLeft) {
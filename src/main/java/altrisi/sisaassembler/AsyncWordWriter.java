@@ -0,0 +1,182 @@
+package altrisi.sisaassembler;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import altrisi.sisaassembler.OutputFormat.WordWriter;
+
+import static altrisi.sisaassembler.Logging.*;
+
+/**
+ * A {@link WordWriter} that collects instructions into batches and hands them to a dedicated thread running
+ * the actual {@link WordWriter}, so that formatting doesn't block assembly.<p>
+ *
+ * Exceptions thrown by the delegate are rethrown in the assembling thread on the next call, and reported again
+ * (wrapped) on every call after that. The thread is always stopped by {@link #finish()}, even after a failure.
+ */
+class AsyncWordWriter implements WordWriter {
+	private static final int BATCH_SIZE = 4096;
+	private static final int QUEUED_BATCHES = 4;
+	// how often to check the thread is still alive while waiting for it
+	private static final long POLL_MILLIS = 100;
+	private final WordWriter delegate;
+	private final BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(QUEUED_BATCHES);
+	private final Thread thread;
+	private volatile Throwable failure;
+	private boolean failureReported;
+	private Batch current = new Batch();
+	private boolean finished;
+
+	private static final class Batch {
+		final int[] addresses;
+		final short[] words;
+		final String[] sources;
+		int size;
+		// non-null for flush requests, counted down once the delegate has been flushed
+		final CountDownLatch flushed;
+		final boolean finish;
+
+		Batch() {
+			this.addresses = new int[BATCH_SIZE];
+			this.words = new short[BATCH_SIZE];
+			this.sources = new String[BATCH_SIZE];
+			this.flushed = null;
+			this.finish = false;
+		}
+
+		Batch(boolean finish) {
+			this.addresses = null;
+			this.words = null;
+			this.sources = null;
+			this.flushed = new CountDownLatch(1);
+			this.finish = finish;
+		}
+	}
+
+	AsyncWordWriter(WordWriter delegate) {
+		this.delegate = delegate;
+		this.thread = new Thread(this::run, "sisaj-output-writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public void write(int address, short word, String source) throws IOException {
+		Batch b = current;
+		b.addresses[b.size] = address;
+		b.words[b.size] = word;
+		b.sources[b.size] = source;
+		if (++b.size == BATCH_SIZE) {
+			rethrow();
+			submit(b);
+			current = new Batch();
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		sync(false);
+	}
+
+	@Override
+	public void finish() throws IOException {
+		if (finished) return;
+		finished = true;
+		try {
+			sync(true);
+		} finally {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the output thread");
+			}
+		}
+	}
+
+	private void sync(boolean finish) throws IOException {
+		if (current.size != 0) {
+			submit(current);
+			current = new Batch();
+		}
+		// always queued, even after a failure, so that the thread gets to stop
+		Batch marker = new Batch(finish);
+		submit(marker);
+		try {
+			while (!marker.flushed.await(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+				checkAlive();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the output thread");
+		}
+		rethrow();
+	}
+
+	private void submit(Batch batch) throws IOException {
+		try {
+			while (!queue.offer(batch, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+				checkAlive();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while queueing output");
+		}
+	}
+
+	private void checkAlive() throws IOException {
+		if (!thread.isAlive()) {
+			rethrow();
+			throw new IOException("The output thread stopped");
+		}
+	}
+
+	/**
+	 * Throws the failure of the delegate, if any. The first time as is, then wrapped, given the same
+	 * exception can't be thrown twice in a try-with-resources
+	 */
+	private void rethrow() throws IOException {
+		Throwable t = failure;
+		if (t == null) return;
+		if (failureReported) throw new IOException("Writing the output failed", t);
+		failureReported = true;
+		if (t instanceof IOException e) throw e;
+		if (t instanceof RuntimeException e) throw e;
+		if (t instanceof Error e) throw e;
+		throw new UncheckedIOException(new IOException(t));
+	}
+
+	private void run() {
+		while (true) {
+			Batch batch;
+			try {
+				batch = queue.take();
+			} catch (InterruptedException e) {
+				failure = e;
+				return;
+			}
+			try {
+				if (batch.flushed != null) {
+					if (failure == null) {
+						if (batch.finish) delegate.finish(); else delegate.flush();
+					}
+				} else if (failure == null) { // keep draining after failures so that the assembler never blocks
+					for (int i = 0; i < batch.size; i++) {
+						delegate.write(batch.addresses[i], batch.words[i], batch.sources[i]);
+					}
+				}
+			} catch (Throwable t) {
+				debug("Output thread failed: " + t);
+				failure = t;
+			} finally {
+				if (batch.flushed != null) batch.flushed.countDown();
+			}
+			if (batch.finish) return;
+		}
+	}
+}
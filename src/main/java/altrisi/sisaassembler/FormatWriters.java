@@ -0,0 +1,237 @@
+package altrisi.sisaassembler;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import altrisi.sisaassembler.OutputFormat.WordWriter;
+
+/**
+ * Implementations of the built-in {@link OutputFormat}s
+ */
+class FormatWriters {
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+	@FunctionalInterface
+	interface WriterFactory {
+		WordWriter open(OutputStream out) throws IOException;
+	}
+
+	record Format(WriterFactory factory, boolean textual, boolean relocatable) implements OutputFormat {
+		@Override
+		public WordWriter open(OutputStream out) throws IOException {
+			return factory.open(out);
+		}
+	}
+
+	/**
+	 * Little-endian bytes, buffered to not issue a write per instruction
+	 */
+	static final class Raw implements WordWriter {
+		private final OutputStream out;
+		private final byte[] buff = new byte[8192];
+		private int size;
+
+		Raw(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int address, short word, String source) throws IOException {
+			if (size == buff.length) {
+				flushBuffer();
+			}
+			buff[size++] = (byte)word;
+			buff[size++] = (byte)(word >> 8);
+		}
+
+		@Override
+		public void write(int address, byte[] code, String[] sources) throws IOException {
+			if (code.length <= buff.length - size) {
+				System.arraycopy(code, 0, buff, size, code.length);
+				size += code.length;
+			} else {
+				flushBuffer();
+				out.write(code);
+			}
+		}
+
+		@Override
+		public void transfer(int address, FileChannel in, long length, String source) throws IOException {
+			flush(); // goes after what's buffered
+			// if the output is a FileOutputStream this is its channel, and the copy may not even leave the kernel
+			var channel = Channels.newChannel(out);
+			for (long pos = 0; pos < length; ) {
+				long transferred = in.transferTo(pos, length - pos, channel);
+				if (transferred <= 0) throw new EOFException("File ended before " + length + " bytes");
+				pos += transferred;
+			}
+		}
+
+		private void flushBuffer() throws IOException {
+			out.write(buff, 0, size);
+			size = 0;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			flushBuffer();
+			out.flush();
+		}
+	}
+
+	/**
+	 * Base for the text formats, with a buffered ASCII {@link Writer} and hex helpers
+	 */
+	private static abstract class Text implements WordWriter {
+		protected final Writer out;
+
+		Text(OutputStream out) {
+			this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.US_ASCII), 1 << 16);
+		}
+
+		protected final void hex(int value, int digits) throws IOException {
+			for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+				out.write(HEX_DIGITS[(value >>> shift) & 0xF]);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+	}
+
+	static final class IntelHex extends Text {
+		private static final int DATA = 0x00;
+		private static final int EOF = 0x01;
+		private static final int EXTENDED_LINEAR_ADDRESS = 0x04;
+		private final byte[] record = new byte[16];
+		private int size;
+		private int start;
+		private int upperAddress;
+
+		IntelHex(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int address, short word, String source) throws IOException {
+			if (size != 0 && (size == record.length || start + size != address)) {
+				writeData();
+			}
+			if (size == 0) {
+				start = address;
+				if ((address >>> 16) != upperAddress) {
+					upperAddress = address >>> 16;
+					writeRecord(EXTENDED_LINEAR_ADDRESS, 0, new byte[] {(byte)(upperAddress >> 8), (byte)upperAddress}, 2);
+				}
+			}
+			record[size++] = (byte)word;
+			record[size++] = (byte)(word >> 8);
+		}
+
+		private void writeData() throws IOException {
+			writeRecord(DATA, start & 0xFFFF, record, size);
+			size = 0;
+		}
+
+		private void writeRecord(int type, int offset, byte[] data, int length) throws IOException {
+			int checksum = length + (offset >> 8) + (offset & 0xFF) + type;
+			out.write(':');
+			hex(length, 2);
+			hex(offset, 4);
+			hex(type, 2);
+			for (int i = 0; i < length; i++) {
+				hex(data[i], 2);
+				checksum += data[i];
+			}
+			hex(-checksum, 2);
+			out.write('\n');
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (size != 0) writeData();
+			super.flush();
+		}
+
+		@Override
+		public void finish() throws IOException {
+			if (size != 0) writeData();
+			writeRecord(EOF, 0, record, 0);
+			super.flush();
+		}
+	}
+
+	/**
+	 * Logisim's "v2.0 raw" image. Runs of the same instruction are collapsed into Logisim's {@code count*value} syntax
+	 */
+	static final class Logisim extends Text {
+		private static final int PER_LINE = 8;
+		private int last;
+		private int run;
+		private int inLine;
+
+		Logisim(OutputStream out) throws IOException {
+			super(out);
+			this.out.write("v2.0 raw\n");
+		}
+
+		@Override
+		public void write(int address, short word, String source) throws IOException {
+			int value = Short.toUnsignedInt(word);
+			if (run != 0 && value != last) {
+				writeRun();
+			}
+			last = value;
+			run++;
+		}
+
+		private void writeRun() throws IOException {
+			if (inLine == PER_LINE) {
+				out.write('\n');
+				inLine = 0;
+			} else if (inLine != 0) {
+				out.write(' ');
+			}
+			if (run > 1) {
+				out.write(Integer.toString(run));
+				out.write('*');
+			}
+			out.write(Integer.toHexString(last));
+			run = 0;
+			inLine++;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (run != 0) writeRun();
+			super.flush();
+		}
+
+		@Override
+		public void finish() throws IOException {
+			if (run != 0) writeRun();
+			if (inLine != 0) out.write('\n');
+			super.flush();
+		}
+	}
+
+	static final class Listing extends Text {
+		Listing(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int address, short word, String source) throws IOException {
+			hex(address, 4);
+			out.write("  ");
+			hex(word, 4);
+			out.write("  ");
+			out.write(source);
+			out.write('\n');
+		}
+	}
+}
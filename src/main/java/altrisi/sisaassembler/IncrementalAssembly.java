@@ -0,0 +1,223 @@
+package altrisi.sisaassembler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static altrisi.sisaassembler.Logging.*;
+
+/**
+ * Keeps every line of a file assembled on its own, so that changes only need to assemble the lines that changed.<p>
+ *
+ * Lines are assembled into a raw, flat image: labels are accepted but references to them aren't, like with {@link OutputFormat#RAW}.
+ * Given lines are independent, duplicate labels aren't detected. Included files are only assembled again if the include
+ * line itself changes.<p>
+ *
+ * Macros are kept across lines. As a definition changes how every line after it assembles, changes that touch one
+ * assemble the whole file again.
+ */
+class IncrementalAssembly {
+	private final ModuleCache.Recorder recorder = new ModuleCache.Recorder();
+	private final Assembler assembler;
+	private final List<Line> lines = new ArrayList<>();
+	private int errors;
+
+	/**
+	 * @param text     The line as written
+	 * @param code     The assembled instructions, as little-endian bytes
+	 * @param failures Why the line failed to assemble, empty if it didn't
+	 * @param inMacro  Whether the line leaves a macro being defined, so the next one is part of it
+	 * @param defines  The macro the line defines by ending its definition, if any
+	 */
+	record Line(String text, byte[] code, List<ModuleCache.Failure> failures, boolean inMacro, String defines) {}
+
+	/**
+	 * The lines in {@code [from, oldTo)} were replaced by the ones in {@code [from, newTo)}
+	 * @param oldCode The code of the replaced lines, concatenated
+	 * @param newCode The code of the new lines, concatenated
+	 */
+	record Change(int from, int oldTo, int newTo, byte[] oldCode, byte[] newCode) {
+		boolean moved() {
+			return oldCode.length != newCode.length;
+		}
+	}
+
+	/**
+	 * @param file The file the lines come from, to resolve includes against. May be {@code null}
+	 */
+	IncrementalAssembly(Path file) {
+		try {
+			this.assembler = new Assembler(OutputStream.nullOutputStream(), new FormatWriters.Format(out -> recorder, false, false)) {
+				@Override
+				public void failedLine(String line, int lineNo, AssembleException exception) {
+					recorder.failures.add(new ModuleCache.Failure(line, lineNo, exception));
+				}
+			};
+		} catch (IOException e) {
+			throw new AssertionError(e); // the recorder doesn't throw
+		}
+		assembler.sourceFile(file);
+	}
+
+	/**
+	 * Replaces the whole contents, only assembling the lines between the first and last ones that differ
+	 */
+	Change update(List<String> texts) {
+		int prefix = 0;
+		int max = Math.min(texts.size(), lines.size());
+		while (prefix < max && lines.get(prefix).text().equals(texts.get(prefix))) {
+			prefix++;
+		}
+		int suffix = 0;
+		while (suffix < max - prefix && lines.get(lines.size() - 1 - suffix).text().equals(texts.get(texts.size() - 1 - suffix))) {
+			suffix++;
+		}
+		return replace(prefix, lines.size() - suffix, texts.subList(prefix, texts.size() - suffix));
+	}
+
+	/**
+	 * Replaces the lines in {@code [from, to)} with the given ones, assembling only those
+	 */
+	Change replace(int from, int to, List<String> texts) {
+		List<Line> replaced = lines.subList(from, to);
+		boolean macros = from > 0 && lines.get(from - 1).inMacro();
+		for (Line line : replaced) macros |= line.inMacro();
+		if (macros) {
+			List<String> all = new ArrayList<>(lines.size() - (to - from) + texts.size());
+			for (Line line : lines.subList(0, from)) all.add(line.text());
+			all.addAll(texts);
+			for (Line line : lines.subList(to, lines.size())) all.add(line.text());
+			return reassemble(all, code(), lines.size());
+		}
+
+		byte[] oldCode = concat(replaced);
+		for (Line line : replaced) {
+			if (!line.failures().isEmpty()) errors--;
+		}
+		replaced.clear();
+		// macros defined after the new lines don't exist yet for them
+		Set<String> later = new HashSet<>();
+		for (Line line : lines.subList(from, lines.size())) {
+			if (line.defines() != null) later.add(line.defines());
+		}
+		assembler.hideMacros(later);
+		List<Line> added = new ArrayList<>(texts.size());
+		for (int i = 0; i < texts.size(); i++) {
+			Line line = assemble(from + i + 1, texts.get(i));
+			if (!line.failures().isEmpty()) errors++;
+			macros |= line.inMacro();
+			added.add(line);
+		}
+		assembler.hideMacros(Set.of());
+		lines.addAll(from, added);
+		if (macros) { // a new definition
+			int newTo = from + texts.size();
+			byte[] before = concat(lines.subList(0, from));
+			byte[] after = concat(lines.subList(newTo, lines.size()));
+			byte[] all = new byte[before.length + oldCode.length + after.length];
+			System.arraycopy(before, 0, all, 0, before.length);
+			System.arraycopy(oldCode, 0, all, before.length, oldCode.length);
+			System.arraycopy(after, 0, all, before.length + oldCode.length, after.length);
+			return reassemble(lines.stream().map(Line::text).toList(), all, lines.size() - texts.size() + (to - from));
+		}
+		debug("Assembled lines " + (from + 1) + " to " + (from + texts.size()));
+		return new Change(from, to, from + texts.size(), oldCode, concat(added));
+	}
+
+	/**
+	 * Assembles every line again from the start, with no macros defined
+	 * @param oldCode The whole image before the change
+	 * @param oldSize The amount of lines before the change
+	 */
+	private Change reassemble(List<String> texts, byte[] oldCode, int oldSize) {
+		lines.clear();
+		assembler.resetMacros();
+		for (int i = 0; i < texts.size(); i++) {
+			lines.add(assemble(i + 1, texts.get(i)));
+		}
+		recorder.reset();
+		assembler.finishLines();
+
+		// macros are only checked on their .endm, give those failures to the line they're about.
+		// Others stay where they are, as failures in included files have line numbers of that file
+		var failures = new HashMap<Integer, List<ModuleCache.Failure>>();
+		for (int i = 0; i < lines.size(); i++) {
+			boolean endsMacro = i > 0 && lines.get(i - 1).inMacro() && !lines.get(i).inMacro();
+			for (var failure : lines.get(i).failures()) {
+				failures.computeIfAbsent(endsMacro ? failure.lineNo() - 1 : i, l -> new ArrayList<>()).add(failure);
+			}
+		}
+		for (var failure : recorder.failures) { // missing .endm, about the .macro line
+			failures.computeIfAbsent(failure.lineNo() - 1, l -> new ArrayList<>()).add(failure);
+		}
+		errors = failures.size();
+		for (int i = 0; i < lines.size(); i++) {
+			Line line = lines.get(i);
+			lines.set(i, new Line(line.text(), line.code(), List.copyOf(failures.getOrDefault(i, List.of())), line.inMacro(),
+					line.defines()));
+		}
+		debug("Assembled all " + lines.size() + " lines again");
+		return new Change(0, oldSize, lines.size(), oldCode, code());
+	}
+
+	private Line assemble(int lineNo, String text) {
+		recorder.reset();
+		try {
+			assembler.assembleLine(lineNo, text);
+		} catch (IOException e) {
+			// only an include could fail to read, report it with the line instead of failing everything
+			recorder.failures.add(new ModuleCache.Failure(text.strip(), lineNo, new AssembleException("Error reading included file", e)));
+		}
+		var module = recorder.toModule(null, Map.of());
+		return new Line(text, module.code(), module.failures(), assembler.definingMacro(), assembler.definedMacro());
+	}
+
+	private static byte[] concat(List<Line> lines) {
+		int size = 0;
+		for (Line line : lines) size += line.code().length;
+		byte[] code = new byte[size];
+		int pos = 0;
+		for (Line line : lines) {
+			System.arraycopy(line.code(), 0, code, pos, line.code().length);
+			pos += line.code().length;
+		}
+		return code;
+	}
+
+	/**
+	 * @return The byte offset in the image of the code of the given line
+	 */
+	int offsetOf(int line) {
+		int offset = 0;
+		for (int i = 0; i < line; i++) offset += lines.get(i).code().length;
+		return offset;
+	}
+
+	/**
+	 * @return The whole assembled image
+	 */
+	byte[] code() {
+		return concat(lines);
+	}
+
+	Line line(int index) {
+		return lines.get(index);
+	}
+
+	int size() {
+		return lines.size();
+	}
+
+	/**
+	 * @return The amount of lines that failed to assemble
+	 */
+	int errors() {
+		return errors;
+	}
+}
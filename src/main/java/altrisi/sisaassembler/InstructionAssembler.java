@@ -4,7 +4,15 @@ import static altrisi.sisaassembler.Utils.*;
 
 @FunctionalInterface
 interface InstructionAssembler {
-	void assemble(String args, byte[] buff) throws AssembleException;
+	void assemble(String args, byte[] buff, SymbolReferences refs) throws AssembleException;
+
+	/**
+	 * Receives the symbol an instruction refers to, if any, so that it can be relocated later
+	 */
+	@FunctionalInterface
+	interface SymbolReferences {
+		void reference(String symbol, Relocation type) throws AssembleException;
+	}
 	
 	/**
 	 * @param op Op being in the most-significant bits
@@ -12,7 +20,7 @@ interface InstructionAssembler {
 	 */
 	record Reg3(byte op, byte f) implements InstructionAssembler {
 		@Override
-		public void assemble(String args, byte[] buff) throws AssembleException {
+		public void assemble(String args, byte[] buff, SymbolReferences refs) throws AssembleException {
 			String[] strs = COMMA_SPACE.split(args);
 			if (strs.length != 3) {
 				throw new AssembleException("Got " + strs.length + " arguments for 3-reg instruction");
@@ -36,7 +44,7 @@ interface InstructionAssembler {
 
 	record Reg2(byte op, boolean takeConstant) implements InstructionAssembler {
 		@Override
-		public void assemble(String args, byte[] buff) throws AssembleException {
+		public void assemble(String args, byte[] buff, SymbolReferences refs) throws AssembleException {
 			String[] strs = COMMA_SPACE.split(args);
 			if (strs.length != (takeConstant ? 3 : 2)) {
 				throw new AssembleException("Got " + strs.length + " arguments for 2-reg instruction");
@@ -62,9 +70,12 @@ interface InstructionAssembler {
 		}
 	}
 
-	record Reg1(byte op, byte flag, boolean regAtLeft) implements InstructionAssembler {
+	/**
+	 * @param branch Whether the constant is a branch offset, that can be given as a label
+	 */
+	record Reg1(byte op, byte flag, boolean regAtLeft, boolean branch) implements InstructionAssembler {
 		@Override
-		public void assemble(String args, byte[] buff) throws AssembleException {
+		public void assemble(String args, byte[] buff, SymbolReferences refs) throws AssembleException {
 			String[] strs = COMMA_SPACE.split(args);
 			if (strs.length != 2) {
 				throw new AssembleException("Got " + strs.length + " arguments for 2-reg instruction");
@@ -75,7 +86,15 @@ interface InstructionAssembler {
 			left |= reg << 1;
 			left |= flag;
 
-			byte right = parseConstant(strs[regAtLeft ? 1 : 0], false);
+			String constant = strs[regAtLeft ? 1 : 0];
+			SymbolRef symbol = parseSymbolRef(constant, branch);
+			byte right;
+			if (symbol == null) {
+				right = parseConstant(constant, false);
+			} else {
+				refs.reference(symbol.name(), symbol.type());
+				right = 0; // filled by the linker
+			}
 
 			buff[0] = right;
 			buff[1] = left;
@@ -84,7 +103,7 @@ interface InstructionAssembler {
 	
 	record Memory(byte op, boolean memoryAtLeft) implements InstructionAssembler {
 		@Override
-		public void assemble(String args, byte[] buff) throws AssembleException {
+		public void assemble(String args, byte[] buff, SymbolReferences refs) throws AssembleException {
 			String[] strs = COMMA_SPACE.split(args);
 			if (strs.length != 2) {
 				throw new AssembleException("Got " + strs.length + " comma-separated arguments for memory instruction, expected 2");
@@ -0,0 +1,187 @@
+package altrisi.sisaassembler;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.*;
+import static altrisi.sisaassembler.Logging.*;
+
+/**
+ * Links object files produced with {@link OutputFormat#OBJECT} into a raw binary, see {@link #link(List, Path)}.<p>
+ *
+ * Modules are laid out in the order they're given, starting at address 0. All labels are global, so a label
+ * can't be defined in more than one module.<p>
+ *
+ * Like with the {@link Assembler}, errors are reported to {@link #failedLink(Path, String)}, which you can override.
+ *
+ * @author altrisi
+ */
+public class Linker {
+	private int errors;
+
+	/**
+	 * Links the given object files into a raw binary at the given output {@link Path}, creating it if it doesn't
+	 * exist or truncating it if it does.<p>
+	 * Objects and the output are memory-mapped, and relocations are patched directly into the output, so linking
+	 * only does work per symbol and per relocation other than copying the code. The output is undefined if linking
+	 * {@link #failed()}.
+	 * @param objects The object files to link, in order
+	 * @param output  The {@link Path} to write the binary to
+	 * @throws IOException If an I/O exception occurs while reading the objects or writing the output, or an object is invalid
+	 */
+	public final void link(List<Path> objects, Path output) throws IOException {
+		debug("Linking " + objects.size() + " objects into " + output);
+		ObjectFile.View[] modules = new ObjectFile.View[objects.size()];
+		int[] bases = new int[modules.length];
+		int size = 0;
+		for (int i = 0; i < modules.length; i++) {
+			try (var channel = FileChannel.open(objects.get(i), READ)) {
+				// mapping stays valid after closing the channel
+				modules[i] = new ObjectFile.View(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+			}
+			bases[i] = size;
+			size += modules[i].codeSize;
+		}
+
+		SymbolTable globals = new SymbolTable(Arrays.stream(modules).mapToInt(m -> m.symbolCount).sum());
+		for (int i = 0; i < modules.length; i++) {
+			ObjectFile.View module = modules[i];
+			for (int s = 0; s < module.symbolCount; s++) {
+				if (module.symbolDefined(s) && !globals.put(module.symbolName(s), bases[i] + module.symbolValue(s))) {
+					failLink(objects.get(i), "Duplicate definition of symbol '" + module.symbolName(s) + "'");
+				}
+			}
+		}
+
+		try (var channel = FileChannel.open(output, READ, WRITE, CREATE, TRUNCATE_EXISTING)) {
+			MappedByteBuffer out = channel.map(MapMode.READ_WRITE, 0, size);
+			for (int i = 0; i < modules.length; i++) {
+				ObjectFile.View module = modules[i];
+				out.put(bases[i], module.code(), 0, module.codeSize);
+				if (module.relocationCount == 0) continue;
+
+				// resolve every symbol of the module once, relocations just index into this
+				int[] addresses = new int[module.symbolCount];
+				for (int s = 0; s < module.symbolCount; s++) {
+					addresses[s] = globals.get(module.symbolName(s));
+				}
+				for (int r = 0; r < module.relocationCount; r++) {
+					relocate(out, objects.get(i), module, r, bases[i], addresses);
+				}
+			}
+			out.force();
+		}
+		if (!failed()) debug("Linked " + size + " bytes");
+	}
+
+	private void relocate(MappedByteBuffer out, Path object, ObjectFile.View module, int r, int base, int[] addresses) {
+		int symbol = module.relocationSymbol(r);
+		int offset = module.relocationOffset(r);
+		Relocation type = module.relocationType(r);
+		if (symbol < 0 || symbol >= addresses.length || type == null || offset < 0 || offset + 2 > module.codeSize) {
+			failLink(object, "Corrupted relocation " + r);
+			return;
+		}
+		int target = addresses[symbol];
+		if (target == SymbolTable.MISSING) {
+			failLink(object, "Undefined symbol '" + module.symbolName(symbol) + "'");
+			return;
+		}
+		int address = base + offset;
+		int value = switch (type) {
+			case LO8 -> target;
+			case HI8 -> target >> 8;
+			case PCREL8 -> {
+				int distance = (target - (address + 2)) >> 1;
+				if (distance < Byte.MIN_VALUE || distance > Byte.MAX_VALUE || (target & 1) != 0) {
+					failLink(object, "Branch at 0x" + Integer.toHexString(address) + " can't reach symbol '"
+							+ module.symbolName(symbol) + "' at 0x" + Integer.toHexString(target));
+					yield 0;
+				}
+				yield distance;
+			}
+		};
+		// the constant is always in the least significant byte, which comes first
+		out.put(address, (byte)value);
+	}
+
+	/**
+	 * Gets called when a symbol or relocation fails to link.<p>
+	 * Override this method to handle errors as you like.
+	 * @param object  The object file that caused this failure
+	 * @param message The cause of the failure
+	 */
+	public void failedLink(Path object, String message) {
+		error("Link error in " + object + ": " + message);
+		if (Utils.earlyExit) {
+			fatal("Exiting because of early-exit setting");
+		}
+	}
+
+	private void failLink(Path object, String message) {
+		errors++;
+		failedLink(object, message);
+	}
+
+	public final boolean failed() {
+		return errors != 0;
+	}
+
+	public final int errors() {
+		return errors;
+	}
+
+	/**
+	 * Open-addressing table from symbol names to addresses, backed by primitive arrays
+	 */
+	static final class SymbolTable {
+		static final int MISSING = -1;
+		private final String[] keys;
+		private final int[] hashes;
+		private final int[] values;
+		private final int mask;
+
+		SymbolTable(int expected) {
+			int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+			keys = new String[capacity];
+			hashes = new int[capacity];
+			values = new int[capacity];
+			mask = capacity - 1;
+		}
+
+		/**
+		 * @return Whether the symbol was added, {@code false} if it was already present
+		 */
+		boolean put(String key, int value) {
+			int hash = mix(key.hashCode());
+			for (int i = hash & mask;; i = (i + 1) & mask) {
+				if (keys[i] == null) {
+					keys[i] = key;
+					hashes[i] = hash;
+					values[i] = value;
+					return true;
+				}
+				if (hashes[i] == hash && keys[i].equals(key)) {
+					return false;
+				}
+			}
+		}
+
+		int get(String key) {
+			int hash = mix(key.hashCode());
+			for (int i = hash & mask;; i = (i + 1) & mask) {
+				if (keys[i] == null) return MISSING;
+				if (hashes[i] == hash && keys[i].equals(key)) return values[i];
+			}
+		}
+
+		private static int mix(int hash) {
+			return hash ^ (hash >>> 16);
+		}
+	}
+}
@@ -0,0 +1,303 @@
+package altrisi.sisaassembler;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import altrisi.sisaassembler.InstructionAssembler.Reg1;
+import altrisi.sisaassembler.Utils.SymbolRef;
+
+import static altrisi.sisaassembler.Utils.*;
+
+/**
+ * A macro (or pseudo-instruction) compiled into pre-assembled instructions, with the bits every parameter
+ * ends up in, so that using it doesn't need to build or parse any instruction.<p>
+ *
+ * Compiling assembles every body line with a single bit set in each parameter's value, in order to find out
+ * which bits of which instruction it controls. Parameters can be registers or constants, used as whole operands
+ * or as the constant of a memory address. A constant parameter can also be split into bytes with {@code lo(param)}
+ * and {@code hi(param)}, making it take a 16-bit constant.
+ */
+final class Macro {
+	private static final Pattern PARAM_USE = Pattern.compile("(lo|hi)\\((\\w+)\\)|\\b(\\w+)\\b");
+	// kinds of parameters
+	private static final int REG = 0;
+	private static final int CONST6 = 1;
+	private static final int CONST8 = 2;
+	private static final int CONST16 = 3;
+	// kinds of uses
+	private static final int DIRECT = 0;
+	private static final int LOW = 1;
+	private static final int HIGH = 2;
+
+	final String name;
+	private final short[] words;
+	private final int[] paramKinds;
+	private final Field[] fields;
+
+	/**
+	 * Where a parameter is used in one of the instructions
+	 * @param param   The index of the parameter
+	 * @param word    The index of the instruction
+	 * @param masks   The bits of the instruction set by every bit of the parameter's value, after shifting it
+	 * @param shift   How much to shift the parameter's value to the right before looking at its bits
+	 * @param use     How the parameter is used, to know which relocation to use for symbols
+	 * @param branch  Whether the instruction is a branch
+	 */
+	private record Field(int param, int word, short[] masks, int shift, int use, boolean branch) {}
+
+	/**
+	 * A line of the macro's body
+	 */
+	record Body(InstructionAssembler handler, String args, String source, int lineNo) {}
+
+	/**
+	 * A {@link Body} line failed to compile
+	 */
+	@SuppressWarnings("serial")
+	static final class CompileException extends Exception {
+		final Body line;
+
+		CompileException(Body line, AssembleException cause) {
+			super(cause.getMessage(), cause);
+			this.line = line;
+		}
+	}
+
+	private Macro(String name, short[] words, int[] paramKinds, Field[] fields) {
+		this.name = name;
+		this.words = words;
+		this.paramKinds = paramKinds;
+		this.fields = fields;
+	}
+
+	int size() {
+		return words.length;
+	}
+
+	int parameters() {
+		return paramKinds.length;
+	}
+
+	/**
+	 * @return How many bits the given parameter takes: 3 for registers, and 6, 8 or 16 for constants
+	 */
+	int parameterBits(int param) {
+		return switch (paramKinds[param]) {
+			case REG -> 3;
+			case CONST6 -> 6;
+			case CONST8 -> 8;
+			default -> 16;
+		};
+	}
+
+	boolean takesRegister(int param) {
+		return paramKinds[param] == REG;
+	}
+
+	/**
+	 * Compiles a macro
+	 * @param name   The name of the macro
+	 * @param params The names of its parameters, in order
+	 * @param body   Its lines
+	 * @return The compiled {@link Macro}
+	 * @throws CompileException If a line doesn't assemble, or a parameter is used in incompatible ways
+	 */
+	static Macro compile(String name, List<String> params, List<Body> body) throws CompileException {
+		int[] kinds = new int[params.size()];
+		Arrays.fill(kinds, -1);
+		short[] words = new short[body.size()];
+		List<Field> fields = new ArrayList<>();
+		for (int w = 0; w < body.size(); w++) {
+			Body line = body.get(w);
+			try {
+				compileLine(w, line, params, kinds, words, fields);
+			} catch (AssembleException e) {
+				throw new CompileException(line, e);
+			}
+		}
+		for (int p = 0; p < kinds.length; p++) {
+			if (kinds[p] == -1) {
+				throw new CompileException(body.get(0), new AssembleException("Parameter '" + params.get(p) + "' is never used"));
+			}
+		}
+		return new Macro(name, words, kinds, fields.toArray(Field[]::new));
+	}
+
+	private static void compileLine(int w, Body line, List<String> params, int[] kinds, short[] words, List<Field> fields) throws AssembleException {
+		// split the arguments into literal text and parameter uses
+		List<String> literals = new ArrayList<>();
+		List<int[]> uses = new ArrayList<>(); // param, use
+		Matcher m = PARAM_USE.matcher(line.args());
+		int last = 0;
+		while (m.find()) {
+			String param = m.group(2) != null ? m.group(2) : m.group(3);
+			int index = params.indexOf(param);
+			if (index < 0) continue;
+			int use = m.group(1) == null ? DIRECT : m.group(1).equals("lo") ? LOW : HIGH;
+			literals.add(line.args().substring(last, m.start()));
+			uses.add(new int[] {index, use});
+			last = m.end();
+		}
+		literals.add(line.args().substring(last));
+
+		// the parameters used in this line, and how
+		int[] lineParams = uses.stream().mapToInt(u -> u[0]).distinct().toArray();
+		int[] lineUses = new int[lineParams.length];
+		for (int i = 0; i < lineParams.length; i++) {
+			int p = lineParams[i];
+			lineUses[i] = -1;
+			for (int[] use : uses) {
+				if (use[0] != p) continue;
+				if (lineUses[i] != -1 && lineUses[i] != use[1]) {
+					throw new AssembleException("Parameter '" + params.get(p) + "' is used in different ways in the same instruction");
+				}
+				lineUses[i] = use[1];
+			}
+		}
+
+		// find out which parameters are registers by trying every combination, there's no more than a few per instruction
+		boolean[] isReg = null;
+		short base = 0;
+		AssembleException failure = null;
+		for (int combination = 0; combination < 1 << lineParams.length && isReg == null; combination++) {
+			boolean[] candidate = new boolean[lineParams.length];
+			boolean valid = true;
+			for (int i = 0; i < lineParams.length; i++) {
+				candidate[i] = (combination & 1 << i) != 0;
+				int known = kinds[lineParams[i]];
+				valid &= !candidate[i] || lineUses[i] == DIRECT;
+				valid &= known == -1 || (known == REG) == candidate[i];
+			}
+			if (!valid) continue;
+			try {
+				base = encode(line, literals, uses, lineParams, candidate, new int[lineParams.length]);
+				isReg = candidate;
+			} catch (AssembleException e) {
+				if (failure == null) failure = e;
+			}
+		}
+		if (isReg == null) throw failure;
+		words[w] = base;
+
+		// find the bits every bit of every parameter sets
+		boolean branch = line.handler() instanceof Reg1 r && r.branch();
+		for (int i = 0; i < lineParams.length; i++) {
+			int p = lineParams[i];
+			int maxBits = isReg[i] ? 3 : 8;
+			short[] masks = new short[maxBits];
+			int bits = 0;
+			int[] values = new int[lineParams.length];
+			for (; bits < maxBits; bits++) {
+				values[i] = 1 << bits;
+				try {
+					masks[bits] = (short)(encode(line, literals, uses, lineParams, isReg, values) ^ base);
+				} catch (AssembleException e) {
+					break; // field is narrower than this
+				}
+				if (masks[bits] == 0) {
+					throw new AssembleException("Parameter '" + params.get(p) + "' doesn't change the instruction");
+				}
+			}
+			int kind = isReg[i] ? REG : lineUses[i] != DIRECT ? CONST16 : bits == 6 ? CONST6 : CONST8;
+			kinds[p] = merge(params.get(p), kinds[p], kind);
+			fields.add(new Field(p, w, Arrays.copyOf(masks, bits), lineUses[i] == HIGH ? 8 : 0, lineUses[i], branch));
+		}
+	}
+
+	private static int merge(String param, int previous, int kind) throws AssembleException {
+		if (previous == -1 || previous == kind) return kind;
+		if (previous == REG || kind == REG) {
+			throw new AssembleException("Parameter '" + param + "' is used both as a register and as a constant");
+		}
+		return Math.min(previous, kind); // narrowest constant wins, expand checks every field anyway
+	}
+
+	private static short encode(Body line, List<String> literals, List<int[]> uses, int[] lineParams, boolean[] isReg, int[] values) throws AssembleException {
+		StringBuilder args = new StringBuilder(literals.get(0));
+		for (int u = 0; u < uses.size(); u++) {
+			int i = indexOf(lineParams, uses.get(u)[0]);
+			args.append(isReg[i] ? "R" + values[i] : Integer.toString(values[i]));
+			args.append(literals.get(u + 1));
+		}
+		byte[] buff = new byte[2];
+		line.handler().assemble(args.toString(), buff, (symbol, type) -> {
+			throw new AssembleException("Macro bodies can't refer to symbols other than through parameters");
+		});
+		return (short)((buff[1] << 8) | (buff[0] & 0xFF));
+	}
+
+	private static int indexOf(int[] array, int value) {
+		for (int i = 0; i < array.length; i++) {
+			if (array[i] == value) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Expands a use of this macro
+	 * @param args    The arguments, as written
+	 * @param out     Where to write the instructions, at least {@link #size()} long
+	 * @param symbols Where to write the symbol each instruction refers to, if any, at least {@link #size()} long
+	 * @throws AssembleException If the arguments are invalid
+	 */
+	void expand(String args, short[] out, SymbolRef[] symbols) throws AssembleException {
+		String[] strs = args.isEmpty() ? new String[0] : COMMA_SPACE.split(args);
+		if (strs.length != paramKinds.length) {
+			throw new AssembleException("Got " + strs.length + " arguments for macro " + name + ", expected " + paramKinds.length);
+		}
+		int[] registers = new int[strs.length];
+		SymbolRef[] refs = new SymbolRef[strs.length];
+		for (int p = 0; p < strs.length; p++) {
+			if (paramKinds[p] == REG) {
+				registers[p] = parseReg(strs[p]);
+			} else {
+				refs[p] = parseSymbolRef(strs[p], true);
+			}
+		}
+		System.arraycopy(words, 0, out, 0, words.length);
+		Arrays.fill(symbols, 0, words.length, null);
+		for (Field field : fields) {
+			int p = field.param();
+			if (refs[p] != null) {
+				symbols[field.word()] = relocation(field, refs[p]);
+				continue;
+			}
+			int value = paramKinds[p] == REG ? registers[p] : constant(field, strs[p]) >> field.shift();
+			int word = out[field.word()];
+			for (int bit = 0; bit < field.masks().length; bit++) {
+				if ((value & 1 << bit) != 0) word |= field.masks()[bit];
+			}
+			out[field.word()] = (short)word;
+		}
+	}
+
+	/**
+	 * Parses a constant like the instruction the field is in would, so that a value that fits a wider use of
+	 * the parameter isn't cut to fit a narrower one
+	 */
+	private static int constant(Field field, String str) throws AssembleException {
+		if (field.use() != DIRECT) return parseWideConstant(str);
+		byte value = parseConstant(str, field.masks().length == 6);
+		if (field.masks().length == 6 && (value & 0xFF) > 0b111111) { // hex and binary aren't checked for 6 bits
+			throw new AssembleException("Oversized constant: " + str);
+		}
+		return value;
+	}
+
+	private static SymbolRef relocation(Field field, SymbolRef ref) throws AssembleException {
+		boolean bare = ref.type() == Relocation.PCREL8;
+		return switch (field.use()) {
+			case LOW, HIGH -> {
+				if (!bare) throw new AssembleException("Pass just the symbol to a 16-bit constant, not " + ref.type());
+				yield new SymbolRef(ref.name(), field.use() == LOW ? Relocation.LO8 : Relocation.HI8);
+			}
+			default -> {
+				if (field.masks().length != 8) throw new AssembleException("Symbols don't fit 6-bit constants");
+				if (bare && !field.branch()) throw new AssembleException("Use lo(symbol) or hi(symbol) to refer to a symbol");
+				if (!bare && field.branch()) throw new AssembleException("Branches take a label");
+				yield ref;
+			}
+		};
+	}
+}
@@ -0,0 +1,147 @@
+package altrisi.sisaassembler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import altrisi.sisaassembler.OutputFormat.WordWriter;
+
+import static altrisi.sisaassembler.Logging.*;
+
+/**
+ * Cache of included files, already assembled, shared by all {@link Assembler}s.<p>
+ * Entries are keyed by their absolute path, and parsed again if the file or any file it includes, directly or not,
+ * was modified since.
+ */
+class ModuleCache {
+	private static final ConcurrentMap<Path, Module> CACHE = new ConcurrentHashMap<>();
+
+	@FunctionalInterface
+	interface Parser {
+		Module parse(Path file, FileTime modified) throws IOException;
+	}
+
+	/**
+	 * An assembled file, ready to be copied into the output
+	 * @param modified          The modification time of the file when it was assembled
+	 * @param includes          Every file it includes, directly or not, with its modification time when it was assembled
+	 * @param code              The assembled instructions, as little-endian bytes
+	 * @param sources           The source line of every instruction
+	 * @param labels            The labels defined in the file
+	 * @param labelOffsets      The byte offset of every label
+	 * @param symbols           The symbol every relocation refers to
+	 * @param types             The type of every relocation
+	 * @param relocationOffsets The byte offset of every relocation
+	 * @param failures          The lines that failed to assemble
+	 */
+	record Module(FileTime modified, Map<Path, FileTime> includes, byte[] code, String[] sources, String[] labels, int[] labelOffsets,
+			String[] symbols, Relocation[] types, int[] relocationOffsets, List<Failure> failures) {}
+
+	record Failure(String line, int lineNo, AssembleException exception) {}
+
+	static Module get(Path file, Parser parser) throws IOException {
+		Path key = file.toAbsolutePath().normalize();
+		FileTime modified = Files.getLastModifiedTime(key);
+		Module module = CACHE.get(key);
+		if (module != null && module.modified().equals(modified) && includesUnchanged(module)) {
+			debug("Using cached module for " + key);
+			return module;
+		}
+		// not parsing in compute() given parsing can include (and therefore cache) other files
+		module = parser.parse(key, modified);
+		CACHE.put(key, module);
+		return module;
+	}
+
+	private static boolean includesUnchanged(Module module) {
+		for (var include : module.includes().entrySet()) {
+			try {
+				if (!Files.getLastModifiedTime(include.getKey()).equals(include.getValue())) return false;
+			} catch (IOException e) {
+				return false; // let parsing it again report what happened
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * A {@link WordWriter} that records everything into a {@link Module}
+	 */
+	static final class Recorder implements WordWriter {
+		private byte[] code = new byte[256];
+		private int codeSize;
+		private final List<String> sources = new ArrayList<>();
+		private final List<String> labels = new ArrayList<>();
+		private int[] labelOffsets = new int[16];
+		private final List<String> symbols = new ArrayList<>();
+		private final List<Relocation> types = new ArrayList<>();
+		private int[] relocationOffsets = new int[16];
+		final List<Failure> failures = new ArrayList<>();
+
+		@Override
+		public void write(int address, short word, String source) {
+			if (address + 2 > code.length) {
+				code = Arrays.copyOf(code, Math.max(code.length * 2, address + 2));
+			}
+			code[address] = (byte)word;
+			code[address + 1] = (byte)(word >> 8);
+			codeSize = address + 2;
+			sources.add(source);
+		}
+
+		@Override
+		public void write(int address, byte[] block, String[] blockSources) {
+			if (address + block.length > code.length) {
+				code = Arrays.copyOf(code, Math.max(code.length * 2, address + block.length));
+			}
+			System.arraycopy(block, 0, code, address, block.length);
+			codeSize = address + block.length;
+			sources.addAll(Arrays.asList(blockSources));
+		}
+
+		@Override
+		public void defineSymbol(String name, int address) {
+			if (labels.size() == labelOffsets.length) {
+				labelOffsets = Arrays.copyOf(labelOffsets, labelOffsets.length * 2);
+			}
+			labelOffsets[labels.size()] = address;
+			labels.add(name);
+		}
+
+		@Override
+		public void relocate(int address, Relocation type, String symbol) {
+			if (symbols.size() == relocationOffsets.length) {
+				relocationOffsets = Arrays.copyOf(relocationOffsets, relocationOffsets.length * 2);
+			}
+			relocationOffsets[symbols.size()] = address;
+			symbols.add(symbol);
+			types.add(type);
+		}
+
+		@Override
+		public void flush() {}
+
+		void reset() {
+			codeSize = 0;
+			sources.clear();
+			labels.clear();
+			symbols.clear();
+			types.clear();
+			failures.clear();
+		}
+
+		Module toModule(FileTime modified, Map<Path, FileTime> includes) {
+			return new Module(modified, Map.copyOf(includes), Arrays.copyOf(code, codeSize), sources.toArray(String[]::new),
+					labels.toArray(String[]::new), Arrays.copyOf(labelOffsets, labels.size()),
+					symbols.toArray(String[]::new), types.toArray(Relocation[]::new), Arrays.copyOf(relocationOffsets, symbols.size()),
+					List.copyOf(failures));
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package altrisi.sisaassembler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import altrisi.sisaassembler.OutputFormat.WordWriter;
+
+/**
+ * The relocatable object format, written by {@link OutputFormat#OBJECT} and read by the {@link Linker}.<p>
+ *
+ * All values are little-endian, and every section is 4-byte aligned so the file can be read in place once mapped:
+ * <pre>
+ * header      magic "SISO", u16 version, u16 reserved, u32 code bytes, u32 symbol count, u32 relocation count, u32 string table bytes
+ * code        the assembled instructions, padded to 4 bytes
+ * symbols     u32 name offset, u16 name length, u16 flags, u32 value (byte address in the code)
+ * relocations u32 offset (byte address of the instruction), u32 symbol index, u32 {@link Relocation} type
+ * strings     UTF-8 symbol names
+ * </pre>
+ */
+class ObjectFile {
+	static final int MAGIC = 'S' | 'I' << 8 | 'S' << 16 | 'O' << 24;
+	static final short VERSION = 1;
+	static final int HEADER_SIZE = 24;
+	static final int SYMBOL_SIZE = 12;
+	static final int RELOCATION_SIZE = 12;
+	// symbol flags
+	static final short DEFINED = 1;
+
+	static int align(int size) {
+		return (size + 3) & ~3;
+	}
+
+	/**
+	 * Collects the module in memory, given the header needs all counts, and writes it on {@link #finish()}
+	 */
+	static final class Writer implements WordWriter {
+		private final OutputStream out;
+		private byte[] code = new byte[1024];
+		private int codeSize;
+		private final Map<String, Integer> symbolIndices = new HashMap<>();
+		private String[] symbols = new String[16];
+		private int[] symbolValues = new int[16];
+		private short[] symbolFlags = new short[16];
+		private int symbolCount;
+		private int[] relocations = new int[48]; // offset, symbol, type
+		private int relocationCount;
+
+		Writer(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int address, short word, String source) {
+			if (address + 2 > code.length) {
+				code = Arrays.copyOf(code, Math.max(code.length * 2, address + 2));
+			}
+			code[address] = (byte)word;
+			code[address + 1] = (byte)(word >> 8);
+			codeSize = Math.max(codeSize, address + 2);
+		}
+
+		@Override
+		public void write(int address, byte[] block, String[] sources) {
+			if (address + block.length > code.length) {
+				code = Arrays.copyOf(code, Math.max(code.length * 2, address + block.length));
+			}
+			System.arraycopy(block, 0, code, address, block.length);
+			codeSize = Math.max(codeSize, address + block.length);
+		}
+
+		@Override
+		public void defineSymbol(String name, int address) {
+			int index = symbol(name);
+			symbolValues[index] = address;
+			symbolFlags[index] |= DEFINED;
+		}
+
+		@Override
+		public void relocate(int address, Relocation type, String symbol) {
+			if (relocationCount * 3 == relocations.length) {
+				relocations = Arrays.copyOf(relocations, relocations.length * 2);
+			}
+			int i = relocationCount++ * 3;
+			relocations[i] = address;
+			relocations[i + 1] = symbol(symbol);
+			relocations[i + 2] = type.ordinal();
+		}
+
+		private int symbol(String name) {
+			Integer index = symbolIndices.get(name);
+			if (index != null) return index;
+			if (symbolCount == symbols.length) {
+				symbols = Arrays.copyOf(symbols, symbolCount * 2);
+				symbolValues = Arrays.copyOf(symbolValues, symbolCount * 2);
+				symbolFlags = Arrays.copyOf(symbolFlags, symbolCount * 2);
+			}
+			symbols[symbolCount] = name;
+			symbolIndices.put(name, symbolCount);
+			return symbolCount++;
+		}
+
+		@Override
+		public void flush() {
+			// nothing can be written until the module is complete
+		}
+
+		@Override
+		public void finish() throws IOException {
+			byte[][] names = new byte[symbolCount][];
+			int stringsSize = 0;
+			for (int i = 0; i < symbolCount; i++) {
+				names[i] = symbols[i].getBytes(StandardCharsets.UTF_8);
+				stringsSize += names[i].length;
+			}
+			int size = HEADER_SIZE + align(codeSize) + symbolCount * SYMBOL_SIZE + relocationCount * RELOCATION_SIZE + stringsSize;
+			ByteBuffer buff = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+			buff.putInt(MAGIC).putShort(VERSION).putShort((short)0)
+				.putInt(codeSize).putInt(symbolCount).putInt(relocationCount).putInt(stringsSize);
+			buff.put(code, 0, codeSize);
+			buff.position(HEADER_SIZE + align(codeSize));
+			int nameOffset = 0;
+			for (int i = 0; i < symbolCount; i++) {
+				buff.putInt(nameOffset).putShort((short)names[i].length).putShort(symbolFlags[i]).putInt(symbolValues[i]);
+				nameOffset += names[i].length;
+			}
+			for (int i = 0; i < relocationCount * 3; i++) {
+				buff.putInt(relocations[i]);
+			}
+			for (byte[] name : names) {
+				buff.put(name);
+			}
+			out.write(buff.array());
+			out.flush();
+		}
+	}
+
+	/**
+	 * A read-only view of an object file in a (usually mapped) {@link ByteBuffer}
+	 */
+	static final class View {
+		private final ByteBuffer buff;
+		final int codeSize;
+		final int symbolCount;
+		final int relocationCount;
+		private final int symbolsStart;
+		private final int relocationsStart;
+		private final int stringsStart;
+
+		View(ByteBuffer buff) throws IOException {
+			this.buff = buff.order(ByteOrder.LITTLE_ENDIAN);
+			if (buff.limit() < HEADER_SIZE || buff.getInt(0) != MAGIC) {
+				throw new IOException("Not a SISA object file");
+			}
+			if (buff.getShort(4) != VERSION) {
+				throw new IOException("Unsupported object file version " + buff.getShort(4));
+			}
+			codeSize = buff.getInt(8);
+			symbolCount = buff.getInt(12);
+			relocationCount = buff.getInt(16);
+			symbolsStart = HEADER_SIZE + align(codeSize);
+			relocationsStart = symbolsStart + symbolCount * SYMBOL_SIZE;
+			stringsStart = relocationsStart + relocationCount * RELOCATION_SIZE;
+			if (codeSize < 0 || symbolCount < 0 || relocationCount < 0 || stringsStart + buff.getInt(20) != buff.limit()) {
+				throw new IOException("Corrupted object file");
+			}
+		}
+
+		ByteBuffer code() {
+			return buff.slice(HEADER_SIZE, codeSize);
+		}
+
+		String symbolName(int index) {
+			int entry = symbolsStart + index * SYMBOL_SIZE;
+			byte[] name = new byte[Short.toUnsignedInt(buff.getShort(entry + 4))];
+			buff.get(stringsStart + buff.getInt(entry), name);
+			return new String(name, StandardCharsets.UTF_8);
+		}
+
+		boolean symbolDefined(int index) {
+			return (buff.getShort(symbolsStart + index * SYMBOL_SIZE + 6) & DEFINED) != 0;
+		}
+
+		int symbolValue(int index) {
+			return buff.getInt(symbolsStart + index * SYMBOL_SIZE + 8);
+		}
+
+		int relocationOffset(int index) {
+			return buff.getInt(relocationsStart + index * RELOCATION_SIZE);
+		}
+
+		int relocationSymbol(int index) {
+			return buff.getInt(relocationsStart + index * RELOCATION_SIZE + 4);
+		}
+
+		Relocation relocationType(int index) {
+			return Relocation.byId(buff.getInt(relocationsStart + index * RELOCATION_SIZE + 8));
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package altrisi.sisaassembler;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * An {@link OutputFormat} decides how the instructions produced by an {@link Assembler} are encoded into its output.
+ * Pass one to {@link Assembler#Assembler(java.nio.file.Path, OutputFormat)} or {@link Assembler#Assembler(OutputStream, OutputFormat)}.<p>
+ *
+ * The built-in formats are {@link #RAW} (the default), {@link #INTEL_HEX}, {@link #LOGISIM}, {@link #LISTING} and {@link #OBJECT}. You can
+ * implement your own by returning a {@link WordWriter} from {@link #open(OutputStream)}.<p>
+ *
+ * Formats that are {@link #textual() textual} get their {@link WordWriter} run in a dedicated thread, fed with batches of
+ * instructions, so that formatting happens in parallel to the assembly itself.
+ *
+ * @author altrisi
+ */
+public interface OutputFormat {
+	/**
+	 * Raw little-endian instructions, two bytes per instruction
+	 */
+	OutputFormat RAW       = new FormatWriters.Format(FormatWriters.Raw::new, false, false);
+	/**
+	 * Intel HEX records, with 16 bytes per data record
+	 */
+	OutputFormat INTEL_HEX = new FormatWriters.Format(FormatWriters.IntelHex::new, true, false);
+	/**
+	 * Logisim's "v2.0 raw" memory image, for 16-bit wide ROMs and RAMs
+	 */
+	OutputFormat LOGISIM   = new FormatWriters.Format(FormatWriters.Logisim::new, true, false);
+	/**
+	 * A human-readable listing, with the address, the instruction and the source line it came from
+	 */
+	OutputFormat LISTING   = new FormatWriters.Format(FormatWriters.Listing::new, true, false);
+	/**
+	 * A relocatable object file, with a symbol table and relocations, to be linked by the {@link Linker}.<p>
+	 * The object is only written once the {@link Assembler} is closed.
+	 */
+	OutputFormat OBJECT    = new FormatWriters.Format(ObjectFile.Writer::new, false, true);
+
+	/**
+	 * Creates a new {@link WordWriter} for this format that writes to the given {@link OutputStream}.<p>
+	 * The {@link WordWriter} must not close the stream, the {@link Assembler} will do that itself.
+	 * @param out The {@link OutputStream} to write to
+	 * @return A new {@link WordWriter}
+	 * @throws IOException If an I/O exception occurs while preparing the output
+	 */
+	WordWriter open(OutputStream out) throws IOException;
+
+	/**
+	 * @return Whether this format is textual, and therefore worth formatting in a separate thread
+	 */
+	default boolean textual() {
+		return false;
+	}
+
+	/**
+	 * @return Whether this format can hold symbols and relocations, and therefore references to labels.
+	 *         If it does, its {@link WordWriter} must implement {@link WordWriter#relocate(int, Relocation, String)}
+	 */
+	default boolean relocatable() {
+		return false;
+	}
+
+	/**
+	 * Receives the instructions assembled by an {@link Assembler} in order, and encodes them into its output.
+	 */
+	interface WordWriter {
+		/**
+		 * Writes an assembled instruction
+		 * @param address The byte address of the instruction
+		 * @param word    The assembled instruction
+		 * @param source  The (trimmed) source line the instruction came from
+		 * @throws IOException If an I/O exception occurs while writing
+		 */
+		void write(int address, short word, String source) throws IOException;
+
+		/**
+		 * Writes a block of already assembled instructions or data. By default writes them one by one.
+		 * The arrays may be reused by the caller once this returns
+		 * @param address The byte address of the first instruction
+		 * @param code    The assembled instructions, as little-endian bytes
+		 * @param sources The source line of every instruction
+		 * @throws IOException If an I/O exception occurs while writing
+		 */
+		default void write(int address, byte[] code, String[] sources) throws IOException {
+			for (int i = 0; i < code.length; i += 2) {
+				write(address + i, (short)((code[i + 1] << 8) | (code[i] & 0xFF)), sources[i >> 1]);
+			}
+		}
+
+		/**
+		 * Writes data straight from a file, as if it was a {@link #write(int, byte[], String[]) block} where every word
+		 * comes from the same source line. By default reads it in chunks and writes them as blocks
+		 * @param address The byte address of the data
+		 * @param in      The file, read from its start without changing its position
+		 * @param length  How many bytes to write, always even
+		 * @param source  The source line the data came from
+		 * @throws IOException If an I/O exception occurs while reading or writing
+		 */
+		default void transfer(int address, FileChannel in, long length, String source) throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate((int)Math.min(length, 8192));
+			String[] sources = new String[buffer.capacity() / 2];
+			Arrays.fill(sources, source);
+			for (long pos = 0; pos < length; ) {
+				buffer.clear().limit((int)Math.min(buffer.capacity(), length - pos));
+				while (buffer.hasRemaining()) {
+					if (in.read(buffer, pos + buffer.position()) < 0) throw new EOFException("File ended before " + length + " bytes");
+				}
+				int read = buffer.position();
+				if (read == buffer.capacity()) {
+					write(address + (int)pos, buffer.array(), sources);
+				} else {
+					write(address + (int)pos, Arrays.copyOf(buffer.array(), read), Arrays.copyOf(sources, read / 2));
+				}
+				pos += read;
+			}
+		}
+
+		/**
+		 * Defines a label at the given address. Ignored by default
+		 * @param name    The name of the label
+		 * @param address The byte address it points to
+		 * @throws IOException If an I/O exception occurs while writing
+		 */
+		default void defineSymbol(String name, int address) throws IOException {}
+
+		/**
+		 * Marks the instruction at the given address as referring to a symbol. Only called for {@link OutputFormat#relocatable() relocatable}
+		 * formats, and after the instruction itself was {@link #write(int, short, String) written}
+		 * @param address The byte address of the instruction
+		 * @param type    The kind of reference
+		 * @param symbol  The symbol being referred to
+		 * @throws IOException If an I/O exception occurs while writing, or by default, as the format doesn't support relocations
+		 */
+		default void relocate(int address, Relocation type, String symbol) throws IOException {
+			throw new IOException("Output format doesn't support relocations, but claims to be relocatable");
+		}
+
+		/**
+		 * Makes sure everything written so far has reached the underlying {@link OutputStream}.
+		 * Called at the end of every {@code assemble} call.
+		 * @throws IOException If an I/O exception occurs while writing
+		 */
+		void flush() throws IOException;
+
+		/**
+		 * Writes any trailer the format may need and flushes. Called once, when the {@link Assembler} is closed.
+		 * @throws IOException If an I/O exception occurs while writing
+		 */
+		default void finish() throws IOException {
+			flush();
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package altrisi.sisaassembler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * The 64KB of memory of a {@link Simulator}, in pages that are shared with snapshots until written (copy-on-write).<p>
+ *
+ * Taking a snapshot just copies the page table. After that, the first write to a page copies it, and only the pages
+ * copied since are different from the snapshot, so restoring it only needs to put those back.
+ */
+final class PagedMemory {
+	static final int SIZE = 1 << 16;
+	static final int PAGE_BITS = 8;
+	static final int PAGE_SIZE = 1 << PAGE_BITS;
+	static final int PAGES = SIZE / PAGE_SIZE;
+	// never written, every page starts as this one
+	private static final byte[] ZERO = new byte[PAGE_SIZE];
+
+	private final byte[][] pages = new byte[PAGES][];
+	// pages that can be written in place, as one bit per page. Also the pages that changed since the base
+	private final long[] owned = new long[PAGES / Long.SIZE];
+	// page table of the last snapshot taken or restored, if any
+	private byte[][] base;
+
+	PagedMemory() {
+		Arrays.fill(pages, ZERO);
+	}
+
+	byte readByte(int address) {
+		address &= SIZE - 1;
+		return pages[address >>> PAGE_BITS][address & PAGE_SIZE - 1];
+	}
+
+	/**
+	 * Reads a little-endian word, ignoring the lsb of the address as words are aligned
+	 */
+	short readWord(int address) {
+		address &= SIZE - 2;
+		byte[] page = pages[address >>> PAGE_BITS];
+		int offset = address & PAGE_SIZE - 1;
+		return (short)((page[offset + 1] << 8) | (page[offset] & 0xFF));
+	}
+
+	void writeByte(int address, byte value) {
+		address &= SIZE - 1;
+		writable(address >>> PAGE_BITS)[address & PAGE_SIZE - 1] = value;
+	}
+
+	void writeWord(int address, short value) {
+		address &= SIZE - 2;
+		byte[] page = writable(address >>> PAGE_BITS);
+		int offset = address & PAGE_SIZE - 1;
+		page[offset] = (byte)value;
+		page[offset + 1] = (byte)(value >> 8);
+	}
+
+	/**
+	 * Copies the given bytes into memory, wrapping around at the end
+	 */
+	void write(int address, byte[] bytes, int offset, int length) {
+		while (length > 0) {
+			address &= SIZE - 1;
+			int inPage = address & PAGE_SIZE - 1;
+			int chunk = Math.min(length, PAGE_SIZE - inPage);
+			System.arraycopy(bytes, offset, writable(address >>> PAGE_BITS), inPage, chunk);
+			address += chunk;
+			offset += chunk;
+			length -= chunk;
+		}
+	}
+
+	/**
+	 * Reads from the channel straight into the pages, starting at the given address, until its end or the end of memory
+	 * @return The amount of bytes read
+	 */
+	int read(ReadableByteChannel channel, int address) throws IOException {
+		int start = address;
+		while (address < SIZE) {
+			int inPage = address & PAGE_SIZE - 1;
+			ByteBuffer buffer = ByteBuffer.wrap(writable(address >>> PAGE_BITS), inPage, PAGE_SIZE - inPage);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) return address + buffer.position() - inPage - start;
+			}
+			address += PAGE_SIZE - inPage;
+		}
+		return address - start;
+	}
+
+	private byte[] writable(int page) {
+		long bit = 1L << page;
+		if ((owned[page >>> 6] & bit) == 0) {
+			pages[page] = pages[page].clone();
+			owned[page >>> 6] |= bit;
+		}
+		return pages[page];
+	}
+
+	/**
+	 * @return The current pages, that from now on won't be written
+	 */
+	byte[][] snapshot() {
+		Arrays.fill(owned, 0);
+		base = pages.clone();
+		return base;
+	}
+
+	/**
+	 * Goes back to the given {@link #snapshot()}. Restoring the last one taken or restored only touches the pages
+	 * written since, others compare the whole page table
+	 */
+	void restore(byte[][] snapshot) {
+		if (snapshot == base) {
+			for (int i = 0; i < owned.length; i++) {
+				for (long bits = owned[i]; bits != 0; bits &= bits - 1) {
+					int page = i << 6 | Long.numberOfTrailingZeros(bits);
+					pages[page] = base[page];
+				}
+			}
+		} else {
+			System.arraycopy(snapshot, 0, pages, 0, PAGES);
+			base = snapshot;
+		}
+		Arrays.fill(owned, 0);
+	}
+
+	/**
+	 * @return The amount of pages written since the last snapshot taken or restored
+	 */
+	int dirtyPages() {
+		int dirty = 0;
+		for (long bits : owned) dirty += Long.bitCount(bits);
+		return dirty;
+	}
+}
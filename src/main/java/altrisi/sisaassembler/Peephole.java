@@ -0,0 +1,75 @@
+package altrisi.sisaassembler;
+
+import static altrisi.sisaassembler.Instructions.*;
+
+/**
+ * Peephole optimizations an {@link Assembler} can apply to the instructions it assembles, enabled with
+ * {@link Assembler#optimize(java.util.Set)}.<p>
+ *
+ * Note that removing instructions moves the ones after them, so these should only be enabled for code whose branches
+ * use labels rather than numeric offsets. Labels are never optimized across.
+ *
+ * @author altrisi
+ */
+public enum Peephole {
+	/**
+	 * Removes {@code ADDI Rx, Rx, 0}
+	 */
+	REDUNDANT_ADDI {
+		@Override
+		boolean apply(PeepholeOptimizer window) {
+			var cur = window.last(0);
+			if (cur.opcode() == ADDI && cur.regA() == cur.regD() && cur.n6() == 0) {
+				window.remove(0);
+				return true;
+			}
+			return false;
+		}
+	},
+	/**
+	 * Removes a {@code MOVI} or {@code MOVHI} to a register that is immediately overwritten by a {@code MOVI}, or a {@code MOVHI}
+	 * immediately overwritten by another {@code MOVHI}
+	 */
+	DEAD_MOVE {
+		@Override
+		boolean apply(PeepholeOptimizer window) {
+			var cur = window.last(0);
+			var prev = window.last(1);
+			if (prev == null || cur.opcode() != MOVE || prev.opcode() != MOVE || cur.moveReg() != prev.moveReg()) {
+				return false;
+			}
+			if (!cur.movesHigh() || prev.movesHigh()) {
+				window.remove(1);
+				return true;
+			}
+			return false;
+		}
+	},
+	/**
+	 * Merges {@code ADDI Rd, Ra, n} followed by {@code ADDI Rd, Rd, m} into {@code ADDI Rd, Ra, n+m}, if it fits in 6 bits
+	 */
+	MERGE_ADDI {
+		@Override
+		boolean apply(PeepholeOptimizer window) {
+			var cur = window.last(0);
+			var prev = window.last(1);
+			if (prev == null || cur.opcode() != ADDI || prev.opcode() != ADDI
+					|| cur.regA() != cur.regD() || cur.regD() != prev.regD()) {
+				return false;
+			}
+			int sum = prev.n6() + cur.n6();
+			if (sum < -32 || sum > 31) {
+				return false;
+			}
+			window.replace(1, (short)((prev.word() & ~0b111111) | (sum & 0b111111)));
+			window.remove(0);
+			return true;
+		}
+	};
+
+	/**
+	 * Tries to apply this rule at the end of the window
+	 * @return Whether the window was changed
+	 */
+	abstract boolean apply(PeepholeOptimizer window);
+}
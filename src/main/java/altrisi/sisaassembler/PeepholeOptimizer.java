@@ -0,0 +1,133 @@
+package altrisi.sisaassembler;
+
+import java.io.IOException;
+import java.util.Set;
+
+import static altrisi.sisaassembler.Logging.*;
+
+/**
+ * Keeps a sliding window of the last assembled instructions, applying the enabled {@link Peephole} rules to its end
+ * every time an instruction is pushed, and passing the instructions that leave the window to a {@link Sink}.
+ */
+class PeepholeOptimizer {
+	private static final int WINDOW = 4;
+	private final Peephole[] rules;
+	private final Sink sink;
+	private final Instruction[] window = new Instruction[WINDOW];
+	private int size;
+	private int removed;
+
+	@FunctionalInterface
+	interface Sink {
+		void write(short word, String source, Relocation type, String symbol) throws IOException;
+	}
+
+	/**
+	 * An assembled instruction, with accessors for the fields the rules look at
+	 */
+	static final class Instruction {
+		private short word;
+		final String source;
+		final Relocation type;
+		final String symbol;
+
+		Instruction(short word, String source, Relocation type, String symbol) {
+			this.word = word;
+			this.source = source;
+			this.type = type;
+			this.symbol = symbol;
+		}
+
+		short word() {
+			return word;
+		}
+
+		byte opcode() {
+			return (byte)((word >> 8) & 0xF0);
+		}
+
+		int regA() {
+			return (word >> 9) & 0b111;
+		}
+
+		int regD() {
+			return (word >> 6) & 0b111;
+		}
+
+		/**
+		 * @return The sign-extended 6-bit constant
+		 */
+		int n6() {
+			return (word << 26) >> 26;
+		}
+
+		int moveReg() {
+			return (word >> 9) & 0b111;
+		}
+
+		boolean movesHigh() {
+			return (word & 0x100) != 0;
+		}
+	}
+
+	PeepholeOptimizer(Set<Peephole> rules, Sink sink) {
+		this.rules = rules.toArray(new Peephole[0]);
+		this.sink = sink;
+	}
+
+	void push(short word, String source, Relocation type, String symbol) throws IOException {
+		if (size == WINDOW) {
+			emitOldest();
+		}
+		window[size++] = new Instruction(word, source, type, symbol);
+		// keep applying until nothing changes, a merge may enable another one
+		boolean changed = true;
+		while (changed && size != 0) {
+			changed = false;
+			for (Peephole rule : rules) {
+				if (rule.apply(this)) {
+					debug("Applied peephole " + rule);
+					changed = true;
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Passes all instructions in the window to the sink, so that nothing is optimized across this point
+	 */
+	void flush() throws IOException {
+		while (size != 0) {
+			emitOldest();
+		}
+	}
+
+	int removed() {
+		return removed;
+	}
+
+	private void emitOldest() throws IOException {
+		Instruction oldest = window[0];
+		System.arraycopy(window, 1, window, 0, --size);
+		window[size] = null;
+		sink.write(oldest.word, oldest.source, oldest.type, oldest.symbol);
+	}
+
+	// Rule API, indexes count back from the last instruction
+
+	Instruction last(int back) {
+		return back < size ? window[size - 1 - back] : null;
+	}
+
+	void remove(int back) {
+		int index = size - 1 - back;
+		System.arraycopy(window, index + 1, window, index, size - index - 1);
+		window[--size] = null;
+		removed++;
+	}
+
+	void replace(int back, short word) {
+		window[size - 1 - back].word = word;
+	}
+}
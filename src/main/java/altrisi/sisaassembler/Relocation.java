@@ -0,0 +1,28 @@
+package altrisi.sisaassembler;
+
+/**
+ * The ways an instruction can refer to a symbol, that will be resolved by the {@link Linker}.<p>
+ * All of them patch the 8-bit constant in the least significant byte of the instruction.
+ *
+ * @author altrisi
+ */
+public enum Relocation {
+	/**
+	 * The low byte of the symbol's address, written as {@code lo(symbol)}
+	 */
+	LO8,
+	/**
+	 * The high byte of the symbol's address, written as {@code hi(symbol)}
+	 */
+	HI8,
+	/**
+	 * The distance in instructions from the next instruction to the symbol, for branches. Written as just {@code symbol}
+	 */
+	PCREL8;
+
+	private static final Relocation[] VALUES = values();
+
+	static Relocation byId(int id) {
+		return id >= 0 && id < VALUES.length ? VALUES[id] : null;
+	}
+}
@@ -0,0 +1,18 @@
+package altrisi.sisaassembler;
+
+/**
+ * A {@link SimulationException} indicates that a {@link Simulator} ran into something it can't execute, such as
+ * an undefined instruction, as its {@link #getMessage() detail message}.
+ */
+@SuppressWarnings("serial")
+public class SimulationException extends Exception {
+	SimulationException(String msg) {
+		super(msg);
+	}
+
+	@Override
+	public Throwable fillInStackTrace() {
+		// skip stack trace generation unless excessively verbose
+		return Logging.excessivelyVerbose ? super.fillInStackTrace() : this;
+	}
+}
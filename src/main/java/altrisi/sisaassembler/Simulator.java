@@ -0,0 +1,246 @@
+package altrisi.sisaassembler;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Objects;
+
+import static altrisi.sisaassembler.Logging.*;
+
+/**
+ * Executes SISA programs, as output by an {@link Assembler} in the {@link OutputFormat#RAW raw} format. See the
+ * {@code load} methods ({@link #load(Path)} and {@link #load(byte[], int)}) and {@link #run(long)}.<p>
+ *
+ * The machine has 8 registers, a program counter, 256 input and 256 output ports and 64KB of memory. It halts
+ * when an instruction jumps to itself, such as {@code BZ R0, -1}.<p>
+ *
+ * The whole state can be saved with {@link #snapshot()} and put back with {@link #restore(Snapshot)}, for example
+ * to run the same program with many inputs. Memory is copy-on-write: snapshots only copy a page table, and restoring
+ * the last snapshot only copies back the pages written since.
+ */
+public final class Simulator {
+	private final PagedMemory memory = new PagedMemory();
+	private final short[] registers = new short[8];
+	private final short[] inputs = new short[256];
+	private final short[] outputs = new short[256];
+	private int pc;
+	private boolean halted;
+
+	/**
+	 * The state of a {@link Simulator} at some point, to {@link Simulator#restore(Snapshot) restore} it later.
+	 * Can be restored any amount of times, in any {@link Simulator}
+	 */
+	public static final class Snapshot {
+		private final byte[][] pages;
+		private final short[] registers;
+		private final short[] inputs;
+		private final short[] outputs;
+		private final int pc;
+		private final boolean halted;
+
+		private Snapshot(Simulator simulator) {
+			this.pages = simulator.memory.snapshot();
+			this.registers = simulator.registers.clone();
+			this.inputs = simulator.inputs.clone();
+			this.outputs = simulator.outputs.clone();
+			this.pc = simulator.pc;
+			this.halted = simulator.halted;
+		}
+	}
+
+	/**
+	 * Loads a raw image into memory at address 0, reading it straight into memory
+	 * @param image The {@link Path} of the image
+	 * @return The amount of bytes loaded
+	 * @throws IOException If an I/O exception occurs while reading the image
+	 */
+	public int load(Path image) throws IOException {
+		try (var channel = FileChannel.open(image)) {
+			if (channel.size() > PagedMemory.SIZE) {
+				throw new IOException("Image " + image + " doesn't fit in memory");
+			}
+			int loaded = memory.read(channel, 0);
+			debug("Loaded " + loaded + " bytes from " + image);
+			return loaded;
+		}
+	}
+
+	/**
+	 * Copies a raw image into memory at the given address
+	 */
+	public void load(byte[] image, int address) {
+		if (image.length > PagedMemory.SIZE) {
+			throw new IllegalArgumentException("Image doesn't fit in memory");
+		}
+		memory.write(address, image, 0, image.length);
+	}
+
+	/**
+	 * Executes a single instruction, even if halted
+	 * @throws SimulationException If the instruction is undefined
+	 */
+	public void step() throws SimulationException {
+		int word = memory.readWord(pc) & 0xFFFF;
+		int a = word >>> 9 & 7;
+		int b = word >>> 6 & 7; // also the destination of 2-register instructions
+		int d = word >>> 3 & 7;
+		int n6 = word << 26 >> 26;
+		int n8 = (byte)word;
+		boolean flag = (word & 0x100) != 0;
+		int next = pc + 2 & 0xFFFF;
+		switch (word >>> 12) {
+			case 0b0000 -> registers[d] = ops(word, registers[a], registers[b]);
+			case 0b0001 -> registers[d] = compare(word, registers[a], registers[b]);
+			case 0b0010 -> registers[b] = (short)(registers[a] + n6);
+			case 0b0011 -> registers[b] = memory.readWord(registers[a] + n6);
+			case 0b0100 -> memory.writeWord(registers[a] + n6, registers[b]);
+			case 0b0101 -> registers[b] = memory.readByte(registers[a] + n6);
+			case 0b0110 -> memory.writeByte(registers[a] + n6, (byte)registers[b]);
+			case 0b0111 -> {
+				next = registers[a] & 0xFFFE;
+				registers[b] = (short)(pc + 2);
+			}
+			case 0b1000 -> {
+				if ((registers[a] == 0) != flag) next = next + n8 * 2 & 0xFFFF;
+			}
+			case 0b1001 -> registers[a] = (short)(flag ? n8 << 8 | registers[a] & 0xFF : n8);
+			case 0b1010 -> {
+				if (flag) {
+					outputs[n8 & 0xFF] = registers[a];
+				} else {
+					registers[a] = inputs[n8 & 0xFF];
+				}
+			}
+			default -> throw undefined(word);
+		}
+		halted = next == pc;
+		pc = next;
+	}
+
+	private static short ops(int word, short a, short b) {
+		return (short)switch (word & 7) {
+			case 0 -> a & b;
+			case 1 -> a | b;
+			case 2 -> a ^ b;
+			case 3 -> ~a;
+			case 4 -> a + b;
+			case 5 -> a - b;
+			case 6 -> shift(a, b);
+			default -> shift(a & 0xFFFF, b);
+		};
+	}
+
+	// shifts left by the signed 5 lsb of the amount, right if negative. Logical if the value is unsigned
+	private static int shift(int value, short amount) {
+		int by = amount << 27 >> 27;
+		return by >= 0 ? value << by : value >> -by;
+	}
+
+	private short compare(int word, short a, short b) throws SimulationException {
+		boolean result = switch (word & 7) {
+			case 0 -> a < b;
+			case 1 -> a <= b;
+			case 3 -> a == b;
+			case 4 -> (a & 0xFFFF) < (b & 0xFFFF);
+			case 5 -> (a & 0xFFFF) <= (b & 0xFFFF);
+			default -> throw undefined(word);
+		};
+		return (short)(result ? 1 : 0);
+	}
+
+	private SimulationException undefined(int word) {
+		return new SimulationException("Undefined instruction 0x" + Integer.toHexString(word).toUpperCase()
+				+ " at 0x" + Integer.toHexString(pc).toUpperCase());
+	}
+
+	/**
+	 * Executes instructions until halting or executing the given amount of them
+	 * @return The amount of instructions executed
+	 * @throws SimulationException If an instruction is undefined
+	 */
+	public long run(long maxSteps) throws SimulationException {
+		long steps = 0;
+		while (!halted && steps < maxSteps) {
+			step();
+			steps++;
+		}
+		return steps;
+	}
+
+	/**
+	 * Saves the whole state of the machine. Only copies the page table and registers, memory is shared with
+	 * the snapshot until written
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+
+	/**
+	 * Puts back the given state. If it's the last snapshot taken or restored, only pages written since are touched
+	 */
+	public void restore(Snapshot snapshot) {
+		Objects.requireNonNull(snapshot);
+		memory.restore(snapshot.pages);
+		System.arraycopy(snapshot.registers, 0, registers, 0, registers.length);
+		System.arraycopy(snapshot.inputs, 0, inputs, 0, inputs.length);
+		System.arraycopy(snapshot.outputs, 0, outputs, 0, outputs.length);
+		pc = snapshot.pc;
+		halted = snapshot.halted;
+	}
+
+	/**
+	 * @return The amount of memory pages written since the last snapshot taken or restored
+	 */
+	public int dirtyPages() {
+		return memory.dirtyPages();
+	}
+
+	public short register(int reg) {
+		return registers[reg];
+	}
+
+	public void setRegister(int reg, short value) {
+		registers[reg] = value;
+	}
+
+	public int pc() {
+		return pc;
+	}
+
+	public void setPc(int pc) {
+		this.pc = pc & 0xFFFE;
+		halted = false;
+	}
+
+	public boolean halted() {
+		return halted;
+	}
+
+	public short input(int port) {
+		return inputs[port];
+	}
+
+	public void setInput(int port, short value) {
+		inputs[port] = value;
+	}
+
+	public short output(int port) {
+		return outputs[port];
+	}
+
+	public byte readByte(int address) {
+		return memory.readByte(address);
+	}
+
+	public short readWord(int address) {
+		return memory.readWord(address);
+	}
+
+	public void writeByte(int address, byte value) {
+		memory.writeByte(address, value);
+	}
+
+	public void writeWord(int address, short value) {
+		memory.writeWord(address, value);
+	}
+}
@@ -43,6 +43,19 @@ class Utils {
 		}
 	}
 	
+	/**
+	 * Parses a double-quoted string, as taken by directives. There are no escapes
+	 * @param str The string to parse, including the quotes
+	 * @return The contents of the string
+	 * @throws AssembleException If the string isn't quoted
+	 */
+	public static String parseString(String str) throws AssembleException {
+		if (str.length() < 2 || str.charAt(0) != '"' || str.indexOf('"', 1) != str.length() - 1) {
+			throw new AssembleException("Expected a double-quoted string, got '" + str + "'");
+		}
+		return str.substring(1, str.length() - 1);
+	}
+
 	/**
 	 * Encodes the registry String str in the lsb of the returned byte
 	 * @param str The registry string to parse, type "R5"
@@ -83,6 +96,51 @@ class Utils {
 		return res;
 	}
 	
+	/**
+	 * Parses a 16-bit constant, signed or unsigned, in any of the radixes {@link #parseConstant(String, boolean)} takes
+	 * @param str The string to parse
+	 * @return The constant, in the 16 lsb
+	 * @throws AssembleException If the string isn't a valid 16-bit constant
+	 */
+	public static int parseWideConstant(String str) throws AssembleException {
+		int asInt = parseInt(str);
+		if (asInt > 0xFFFF || asInt < Short.MIN_VALUE) {
+			throw new AssembleException("Oversized constant: " + str);
+		}
+		return asInt & 0xFFFF;
+	}
+
+	/**
+	 * Parses an 8-bit constant, signed or unsigned, in any of the radixes {@link #parseConstant(String, boolean)} takes
+	 * @param str The string to parse
+	 * @return The constant
+	 * @throws AssembleException If the string isn't a valid 8-bit constant
+	 */
+	public static byte parseByteConstant(String str) throws AssembleException {
+		int asInt = parseInt(str);
+		if (asInt > 0xFF || asInt < Byte.MIN_VALUE) {
+			throw new AssembleException("Oversized byte: " + str);
+		}
+		return (byte)asInt;
+	}
+
+	/**
+	 * Parses an integer in any of the radixes {@link #parseConstant(String, boolean)} takes, without checking its range
+	 */
+	static int parseInt(String str) throws AssembleException {
+		try {
+			if (str.startsWith("0x")) {
+				return Integer.parseUnsignedInt(str, 2, str.length(), HEX);
+			} else if (str.startsWith("0b")) {
+				return Integer.parseUnsignedInt(str, 2, str.length(), BIN);
+			} else {
+				return Integer.parseInt(str);
+			}
+		} catch (NumberFormatException e) {
+			throw new AssembleException("Invalid constant: " + str, e);
+		}
+	}
+
 	private static final byte MAX_6BIT_CONSTANT_POSITIVE = (byte)0b00111111;
 	private static final byte MIN_6BIT_CONSTANT = (byte)0b11100000;
 	private static byte parseDec(String str, boolean sixBits) throws AssembleException {
@@ -106,6 +164,41 @@ class Utils {
 		return res;
 	}
 
+	public static final Pattern SYMBOL = Pattern.compile("[A-Za-z_.][\\w.]*");
+	/**
+	 * A label definition at the start of a line, {@code name:}, with the name as first group
+	 */
+	public static final Pattern LABEL = Pattern.compile("([A-Za-z_.][\\w.]*):\\s*");
+	public record SymbolRef(String name, Relocation type) {}
+	/**
+	 * Parses a symbol reference in place of an 8-bit constant: {@code lo(symbol)}, {@code hi(symbol)},
+	 * or just {@code symbol} for branches
+	 * @param str    The string to parse
+	 * @param branch Whether this constant is a branch offset
+	 * @return The parsed {@link SymbolRef}, or {@code null} if this looks like a numeric constant
+	 * @throws AssembleException If the string isn't a valid symbol reference
+	 */
+	public static SymbolRef parseSymbolRef(String str, boolean branch) throws AssembleException {
+		if (str.isEmpty() || Character.isDigit(str.charAt(0)) || str.charAt(0) == '-' || str.charAt(0) == '+') {
+			return null;
+		}
+		Relocation type;
+		String name;
+		if (str.endsWith(")") && (str.startsWith("lo(") || str.startsWith("hi("))) {
+			type = str.startsWith("lo(") ? Relocation.LO8 : Relocation.HI8;
+			name = str.substring(3, str.length() - 1).strip();
+		} else if (branch) {
+			type = Relocation.PCREL8;
+			name = str;
+		} else {
+			throw new AssembleException("Invalid constant: " + str + ", use lo(symbol) or hi(symbol) to refer to a symbol");
+		}
+		if (!SYMBOL.matcher(name).matches()) {
+			throw new AssembleException("Invalid symbol name: '" + name + "'");
+		}
+		return new SymbolRef(name, type);
+	}
+
 	public record MemAddress(byte reg, byte offset) {}
 	/**
 	 * ^ and $ requires to make it exact
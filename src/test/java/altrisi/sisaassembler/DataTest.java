@@ -0,0 +1,135 @@
+package altrisi.sisaassembler;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static altrisi.sisaassembler.TestUtils.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DataTest {
+	@TempDir
+	Path dir;
+
+	private static byte[] bytes(int... values) {
+		byte[] bytes = new byte[values.length];
+		for (int i = 0; i < values.length; i++) bytes[i] = (byte)values[i];
+		return bytes;
+	}
+
+	private static byte[] concat(byte[] a, byte[] b) {
+		byte[] result = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, result, a.length, b.length);
+		return result;
+	}
+
+	@Test
+	void words() throws Exception {
+		assertArrayEquals(bytes(0x01, 0x00, 0x34, 0x12, 0xFF, 0xFF, 0x01, 0x80),
+				assertCompiles(".word 1, 0x1234, -1, 0b1000000000000001").result());
+	}
+
+	@Test
+	void bytesArePadded() throws Exception {
+		byte[] movi = assertCompiles("MOVI R1, 1").result();
+		assertArrayEquals(concat(bytes(0x01, 0x02, 0xFF, 0x80, 0xFF, 0x00), movi), assertCompiles("""
+				.byte 1, 2, -1, -128, 0xFF
+				MOVI R1, 1
+				""").result());
+	}
+
+	@Test
+	void fills() throws Exception {
+		assertArrayEquals(bytes(0xCD, 0xAB, 0xCD, 0xAB, 0xCD, 0xAB), assertCompiles(".fill 3, 0xABCD").result());
+		assertArrayEquals(new byte[0], assertCompiles(".fill 0").result());
+		assertEquals(20, assertCompiles(".fill 010").result().length); // decimal, like everywhere else
+		assertEquals(6, assertCompiles(".fill 0b11, 1").result().length);
+		assertEquals(32, assertCompiles(".fill 0x10").result().length);
+
+		byte[] big = assertCompiles(".fill 10001, 0x0102").result();
+		assertEquals(20002, big.length);
+		for (int i = 0; i < big.length; i += 2) {
+			assertEquals(2, big[i]);
+			assertEquals(1, big[i + 1]);
+		}
+	}
+
+	@Test
+	void addressesAfterData() throws Exception {
+		var out = new ByteArrayOutputStream();
+		try (var assembler = new Assembler(out, OutputFormat.LISTING)) {
+			assembler.assemble("""
+					.fill 5000
+					.byte 1
+					MOVI R1, 1
+					""".lines());
+		}
+		String[] lines = out.toString(StandardCharsets.US_ASCII).split("\n");
+		assertEquals(5002, lines.length);
+		assertEquals("2710  0001  .byte 1", lines[5000]);
+		assertEquals("2712", lines[5001].substring(0, 4));
+	}
+
+	@Test
+	void includesBinaries() throws Exception {
+		byte[] binary = new byte[100_001];
+		new Random(1).nextBytes(binary);
+		Files.write(dir.resolve("table.bin"), binary);
+		Path source = Files.writeString(dir.resolve("main.sisa"), """
+				MOVI R1, 1
+				.incbin "table.bin"
+				MOVI R1, 1
+				""");
+		byte[] movi = assertCompiles("MOVI R1, 1").result();
+		byte[] expected = concat(concat(movi, binary), concat(new byte[1], movi));
+
+		// straight from file to file
+		Path output = dir.resolve("main.bin");
+		try (var assembler = new Assembler(output)) {
+			assembler.assemble(source);
+		}
+		assertArrayEquals(expected, Files.readAllBytes(output));
+
+		// through a stream, and through a format that gets it in blocks
+		var out = new ByteArrayOutputStream();
+		try (var assembler = new Assembler(out)) {
+			assembler.assemble(source);
+		}
+		assertArrayEquals(expected, out.toByteArray());
+		out.reset();
+		try (var assembler = new Assembler(out, OutputFormat.LOGISIM)) {
+			assembler.assemble(source);
+		}
+		var expectedOut = new ByteArrayOutputStream();
+		var writer = OutputFormat.LOGISIM.open(expectedOut);
+		writer.write(0, expected, new String[expected.length / 2]);
+		writer.finish();
+		assertEquals(expectedOut.toString(StandardCharsets.US_ASCII), out.toString(StandardCharsets.US_ASCII));
+	}
+
+	@Test
+	void invalidData() throws Exception {
+		assertDoesntCompile(".word");
+		assertDoesntCompile(".word 0x10000");
+		assertDoesntCompile(".byte 256");
+		assertDoesntCompile(".byte -129");
+		assertDoesntCompile(".byte 0xFFFF");
+		assertDoesntCompile(".byte 65500");
+		assertDoesntCompile(".byte 0x100");
+		assertDoesntCompile(".fill -1");
+		assertDoesntCompile(".fill 1, 2, 3");
+		assertDoesntCompile(".fill many");
+		assertDoesntCompile(".fill #10");
+		assertDoesntCompile(".fill 0X10");
+		assertDoesntCompile(".fill 0xFFFFFFFF");
+		assertDoesntCompile(".fill 0b");
+		assertDoesntCompile(".incbin \"missing.bin\"");
+	}
+}
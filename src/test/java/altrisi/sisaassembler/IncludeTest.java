@@ -0,0 +1,114 @@
+package altrisi.sisaassembler;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class IncludeTest {
+	@TempDir
+	Path dir;
+
+	private byte[] assemble(Path file, List<Integer> failedLines) throws IOException {
+		var out = new ByteArrayOutputStream();
+		try (var assembler = new Assembler(out) {
+				@Override
+				public void failedLine(String line, int lineNo, AssembleException exception) {
+					failedLines.add(lineNo);
+				}
+			}) {
+			assembler.assemble(file);
+		}
+		return out.toByteArray();
+	}
+
+	private Path write(String name, String code) throws IOException {
+		return Files.writeString(dir.resolve(name), code);
+	}
+
+	@Test
+	void includesFiles() throws Exception {
+		write("lib.sisa", """
+				; shared routine
+				ADD R0, R1, R2
+				MOVI R1, 1
+				""");
+		Path main = write("main.sisa", """
+				MOVI R2, 2
+				.include "lib.sisa"
+				.include "lib.sisa"
+				""");
+		Path expected = write("expected.sisa", """
+				MOVI R2, 2
+				ADD R0, R1, R2
+				MOVI R1, 1
+				ADD R0, R1, R2
+				MOVI R1, 1
+				""");
+		var failed = new ArrayList<Integer>();
+		assertArrayEquals(assemble(expected, failed), assemble(main, failed));
+		assertTrue(failed.isEmpty());
+	}
+
+	@Test
+	void cachesModules() throws Exception {
+		Path lib = write("lib.sisa", "ADD R0, R1, R2");
+		Path main = write("main.sisa", ".include \"lib.sisa\"");
+		assemble(main, new ArrayList<>());
+		var module = ModuleCache.get(lib, (file, modified) -> fail("Module wasn't cached"));
+		assemble(main, new ArrayList<>());
+		assertSame(module, ModuleCache.get(lib, (file, modified) -> fail("Module wasn't cached")));
+	}
+
+	@Test
+	void reparsesNestedIncludes() throws Exception {
+		Path sub = write("sub.sisa", "MOVI R1, 1");
+		Files.setLastModifiedTime(sub, FileTime.fromMillis(1_000_000));
+		write("lib.sisa", ".include \"sub.sisa\"");
+		Path main = write("main.sisa", ".include \"lib.sisa\"");
+		var failed = new ArrayList<Integer>();
+		assertArrayEquals(assemble(sub, failed), assemble(main, failed));
+
+		write("sub.sisa", "MOVI R1, 2");
+		Files.setLastModifiedTime(sub, FileTime.fromMillis(2_000_000));
+		assertArrayEquals(assemble(sub, failed), assemble(main, failed));
+		assertTrue(failed.isEmpty());
+	}
+
+	@Test
+	void reportsOriginalLines() throws Exception {
+		write("lib.sisa", """
+				ADD R0, R1, R2
+
+				NOPE R1
+				""");
+		Path main = write("main.sisa", """
+				; comment
+				.include "lib.sisa"
+				""");
+		var failed = new ArrayList<Integer>();
+		assemble(main, failed);
+		assertEquals(List.of(3), failed);
+	}
+
+	@Test
+	void cyclicInclude() throws Exception {
+		write("a.sisa", ".include \"b.sisa\"");
+		Path b = write("b.sisa", ".include \"a.sisa\"");
+		var failed = new ArrayList<Integer>();
+		assemble(b, failed);
+		assertEquals(1, failed.size());
+	}
+}
@@ -0,0 +1,120 @@
+package altrisi.sisaassembler;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class IncrementalAssemblyTest {
+	private static byte[] full(List<String> lines) throws IOException {
+		var out = new ByteArrayOutputStream();
+		try (var assembler = new Assembler(out)) {
+			assembler.assemble(lines.stream());
+		}
+		return out.toByteArray();
+	}
+
+	@Test
+	void onlyAssemblesChangedLines() throws Exception {
+		var assembly = new IncrementalAssembly(null);
+		assembly.update(List.of("ADD R0, R1, R2", "; comment", "MOVI R1, 1", "SUB R3, R4, R5"));
+
+		var edited = List.of("ADD R0, R1, R2", "; comment", "MOVI R1, 2", "SUB R3, R4, R5");
+		var change = assembly.update(edited);
+		assertEquals(2, change.from());
+		assertEquals(3, change.newTo());
+		assertFalse(change.moved());
+		assertEquals(2, assembly.offsetOf(change.from()));
+		assertArrayEquals(full(edited), assembly.code());
+	}
+
+	@Test
+	void insertedLinesMove() throws Exception {
+		var assembly = new IncrementalAssembly(null);
+		assembly.update(List.of("ADD R0, R1, R2", "SUB R3, R4, R5"));
+
+		var edited = List.of("ADD R0, R1, R2", "MOVI R1, 1", "SUB R3, R4, R5");
+		var change = assembly.update(edited);
+		assertTrue(change.moved());
+		assertEquals(1, change.newTo() - change.from());
+		assertArrayEquals(full(edited), assembly.code());
+	}
+
+	@Test
+	void tracksErrors() throws Exception {
+		var assembly = new IncrementalAssembly(null);
+		assembly.update(List.of("ADD R0, R1, R2", "NOPE R1"));
+		assertEquals(1, assembly.errors());
+		assertEquals(2, assembly.line(1).failures().get(0).lineNo());
+
+		assembly.update(List.of("ADD R0, R1, R2", "MOVI R1, 1"));
+		assertEquals(0, assembly.errors());
+	}
+
+	@Test
+	void definesMacros() throws Exception {
+		var lines = new ArrayList<>(List.of(
+				"SWAP R1, R2",
+				".macro SWAP a, b",
+				"XOR a, a, b",
+				"XOR b, a, b",
+				"XOR a, a, b",
+				".endm",
+				"SWAP R3, R4"));
+		var assembly = new IncrementalAssembly(null);
+		assembly.update(lines);
+		assertEquals(1, assembly.errors()); // used before its definition, like when assembling the whole file
+		assertEquals(1, assembly.line(0).failures().get(0).lineNo());
+
+		lines.set(0, "ADD R0, R1, R2");
+		var change = assembly.update(lines);
+		assertEquals(0, change.from()); // not a macro line, only that one is assembled
+		assertEquals(1, change.newTo());
+		assertEquals(0, assembly.errors());
+		assertArrayEquals(full(lines), assembly.code());
+
+		lines.set(3, "XOR b, a, c");
+		assembly.update(lines);
+		assertEquals(2, assembly.errors()); // the body line, and the use of the macro that is no longer defined
+		assertEquals(4, assembly.line(3).failures().get(0).lineNo()); // reported in the body, not on .endm
+		assertTrue(assembly.line(5).failures().isEmpty());
+		assertEquals(7, assembly.line(6).failures().get(0).lineNo());
+
+		lines.set(3, "XOR b, b, a");
+		var fixed = assembly.update(lines);
+		assertEquals(0, fixed.from()); // every use could have changed
+		assertEquals(0, assembly.errors());
+		assertArrayEquals(full(lines), assembly.code());
+
+		lines.add(".macro CLEAR r");
+		assembly.update(lines);
+		assertEquals(1, assembly.errors());
+		assertEquals("Macro 'CLEAR' is missing its .endm", assembly.line(7).failures().get(0).exception().getMessage());
+	}
+
+	@Test
+	void macrosAfterMovedLines() throws Exception {
+		var lines = new ArrayList<>(List.of(".macro X r", "ADDI r, r, 1", ".endm", "X R1"));
+		var assembly = new IncrementalAssembly(null);
+		assembly.update(lines);
+		lines.addAll(0, List.of("ADD R0, R0, R0", "ADD R0, R0, R0", "ADD R0, R0, R0", "ADD R0, R0, R0", "ADD R0, R0, R0"));
+		var change = assembly.update(lines);
+		assertEquals(5, change.newTo() - change.from()); // not touching the macro, only those are assembled
+		assertEquals(0, assembly.errors());
+
+		// before the definition, like when assembling the whole file
+		lines.add(2, "X R2");
+		assembly.update(lines);
+		assertEquals(1, assembly.errors());
+		assertEquals(3, assembly.line(2).failures().get(0).lineNo());
+		assertTrue(assembly.line(9).failures().isEmpty());
+		assertArrayEquals(full(lines.stream().filter(l -> !l.equals("X R2")).toList()), assembly.code());
+	}
+}
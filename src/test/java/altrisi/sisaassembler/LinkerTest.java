@@ -0,0 +1,98 @@
+package altrisi.sisaassembler;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static altrisi.sisaassembler.TestUtils.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class LinkerTest {
+	@TempDir
+	Path dir;
+
+	private Path object(String name, String code) throws IOException {
+		Path object = dir.resolve(name);
+		try (var assembler = new Assembler(object, OutputFormat.OBJECT)) {
+			assembler.assemble(code.lines());
+			assertFalse(assembler.failed());
+		}
+		return object;
+	}
+
+	@Test
+	void linksAcrossModules() throws Exception {
+		Path a = object("a.o", """
+				start: MOVI R1, lo(data)
+				MOVHI R1, hi(data)
+				BZ R1, other
+				""");
+		Path b = object("b.o", """
+				other:
+				ADD R0, R0, R0
+				data: BNZ R2, start
+				""");
+		Path out = dir.resolve("out.bin");
+		var linker = new Linker();
+		linker.link(List.of(a, b), out);
+		assertFalse(linker.failed());
+		assertArrayEquals(new byte[] {
+				0x08, (byte)0x92,
+				0x00, (byte)0x93,
+				0x00, (byte)0x82,
+				0x04, 0x00,
+				(byte)0xFB, (byte)0x85
+			}, Files.readAllBytes(out));
+	}
+
+	@Test
+	void undefinedSymbol() throws Exception {
+		Path a = object("a.o", "BZ R1, nowhere");
+		var linker = new Linker() {
+			@Override
+			public void failedLink(Path object, String message) {}
+		};
+		linker.link(List.of(a), dir.resolve("out.bin"));
+		assertTrue(linker.failed());
+	}
+
+	@Test
+	void labelsInFlatOutput() throws Exception {
+		assertCompiles("loop: ADD R0, R0, R0")
+			.toSingleInstruction();
+	}
+
+	@Test
+	void referencesNeedObjects() throws Exception {
+		assertDoesntCompile("BZ R1, loop");
+	}
+
+	@Test
+	void explicitlyPositiveConstants() throws Exception {
+		assertEquals(assertCompiles("MOVI R1, 5").result()[0], assertCompiles("MOVI R1, +5").result()[0]);
+		assertEquals(assertCompiles("BZ R1, 5").result()[0], assertCompiles("BZ R1, +5").result()[0]);
+	}
+
+	@Test
+	void relocationsNeedSupport() throws Exception {
+		var format = new FormatWriters.Format(out -> new OutputFormat.WordWriter() {
+			@Override
+			public void write(int address, short word, String source) {}
+
+			@Override
+			public void flush() {}
+		}, false, true);
+		try (var assembler = new Assembler(new ByteArrayOutputStream(), format)) {
+			assertThrows(IOException.class, () -> assembler.assemble("BZ R1, loop".lines()));
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package altrisi.sisaassembler;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static altrisi.sisaassembler.TestUtils.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+class MacroTest {
+	private static byte[] assemble(String code) throws IOException {
+		return assertCompiles(code).result();
+	}
+
+	private static List<Integer> failedLines(String code) throws IOException {
+		var failed = new ArrayList<Integer>();
+		try (var assembler = new Assembler(new ByteArrayOutputStream()) {
+				@Override
+				public void failedLine(String line, int lineNo, AssembleException exception) {
+					failed.add(lineNo);
+				}
+			}) {
+			assembler.assemble(code.lines());
+		}
+		return failed;
+	}
+
+	@Test
+	void notIsOpsWithR0() throws Exception {
+		byte[] expected = new byte[2];
+		new InstructionAssembler.Reg3(Instructions.OPS, Instructions.NOT).assemble("R5, R3, R0", expected, null);
+		assertArrayEquals(expected, assemble("NOT R5, R3"));
+	}
+
+	@Test
+	void loadImmediate() throws Exception {
+		assertArrayEquals(assemble("""
+				MOVI R1, 0x34
+				MOVHI R1, 0x12
+				"""), assemble("LI R1, 0x1234"));
+		assertArrayEquals(assemble("""
+				MOVI R3, -1
+				MOVHI R3, -1
+				"""), assemble("LI R3, -1"));
+		assertArrayEquals(assemble("""
+				MOVI R0, 0b1
+				MOVHI R0, 0
+				"""), assemble("LI R0, 1"));
+	}
+
+	@Test
+	void userMacros() throws Exception {
+		assertArrayEquals(assemble("""
+				ADDI R2, R2, 5
+				ST -4(R3), R1
+				ADDI R3, R3, 1
+				ADDI R1, R1, 1
+				BNZ R1, -3
+				"""), assemble("""
+				.macro INC r, n
+				ADDI r, r, n
+				.endm
+				.macro PUSH v, off, base
+				ST off(base), v
+				ADDI base, base, 1
+				.endm
+				INC R2, 5
+				PUSH R1, -4, R3
+				.macro LOOP r, back
+				ADDI r, r, 1
+				BNZ r, back
+				.endm
+				LOOP R1, -3
+				"""));
+	}
+
+	@Test
+	void macrosLastAcrossAssemblies() throws Exception {
+		var out = new ByteArrayOutputStream();
+		try (var assembler = new Assembler(out)) {
+			assembler.assemble("""
+					; defined on line 3
+
+					.macro INC r
+					ADDI r, r, 1
+					.endm
+					""".lines());
+			assembler.assemble(Stream.of("INC R1"));
+			assertFalse(assembler.failed());
+		}
+		assertArrayEquals(assemble("ADDI R1, R1, 1"), out.toByteArray());
+	}
+
+	@Test
+	void argumentsAreChecked() throws Exception {
+		String macro = """
+				.macro INC r, n
+				ADDI r, r, n
+				.endm
+				""";
+		assertEquals(List.of(4, 5, 6, 7), failedLines(macro + """
+				INC R1, 64
+				INC R1
+				INC 3, 1
+				LI R1, 0x10000
+				"""));
+		assertDoesntCompile("LI R1, label");
+	}
+
+	@Test
+	void constantsFitEveryUse() throws Exception {
+		String narrow8 = """
+				.macro X n
+				ADDI R1, R1, n
+				MOVI R2, n
+				.endm
+				""";
+		assertEquals(List.of(5, 6), failedLines(narrow8 + "X 100\nX 0x40"));
+		assertArrayEquals(assemble("ADDI R1, R1, 20\nMOVI R2, 20"), assemble(narrow8 + "X 20"));
+
+		String narrow16 = """
+				.macro Y n
+				ADDI R1, R1, n
+				MOVI R2, lo(n)
+				MOVHI R2, hi(n)
+				.endm
+				""";
+		assertEquals(List.of(6), failedLines(narrow16 + "Y 0x1234"));
+		assertArrayEquals(assemble("ADDI R1, R1, -1\nMOVI R2, -1\nMOVHI R2, -1"), assemble(narrow16 + "Y -1"));
+	}
+
+	@Test
+	void badDefinitions() throws Exception {
+		assertEquals(List.of(1), failedLines(".macro ADD a\nADD a, a, a\n.endm"));
+		assertEquals(List.of(1), failedLines(".macro LI a\nADD a, a, a\n.endm"));
+		assertEquals(List.of(2), failedLines(".macro X a\nNOPE a\n.endm"));
+		assertEquals(List.of(2), failedLines(".macro X a, b\nADD a, a, a\n.endm"));
+		assertEquals(List.of(3), failedLines(".macro X a\nADDI R1, R1, 0\nADD a, R1, lo(a)\n.endm"));
+		assertEquals(List.of(1), failedLines(".macro X a\nADD a, a, a"));
+		assertEquals(List.of(1), failedLines(".endm"));
+	}
+}
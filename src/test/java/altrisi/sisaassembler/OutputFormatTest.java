@@ -0,0 +1,84 @@
+package altrisi.sisaassembler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import altrisi.sisaassembler.OutputFormat.WordWriter;
+
+import org.junit.jupiter.api.Test;
+
+class OutputFormatTest {
+	private static String assemble(String code, OutputFormat format) throws IOException {
+		var out = new ByteArrayOutputStream();
+		try (var assembler = new Assembler(out, format)) {
+			assembler.assemble(code.lines());
+		}
+		return out.toString(StandardCharsets.US_ASCII);
+	}
+
+	@Test
+	void intelHex() throws Exception {
+		assertEquals("""
+				:020000000400FA
+				:00000001FF
+				""", assemble("ADD R0, R0, R0", OutputFormat.INTEL_HEX));
+	}
+
+	@Test
+	void intelHexSplitsRecords() throws Exception {
+		String result = assemble("ADD R0, R0, R0\n".repeat(9), OutputFormat.INTEL_HEX);
+		assertEquals("""
+				:1000000004000400040004000400040004000400D0
+				:020010000400EA
+				:00000001FF
+				""", result);
+	}
+
+	@Test
+	void logisim() throws Exception {
+		assertEquals("""
+				v2.0 raw
+				3*4 9201
+				""", assemble("""
+				ADD R0, R0, R0
+				ADD R0, R0, R0
+				ADD R0, R0, R0
+				MOVI R1, 1
+				""", OutputFormat.LOGISIM));
+	}
+
+	@Test
+	void listing() throws Exception {
+		assertEquals("""
+				0000  0004  ADD R0, R0, R0
+				0002  9201  MOVI R1, 1
+				""", assemble("""
+				ADD R0, R0, R0 ; comment
+				MOVI R1, 1
+				""", OutputFormat.LISTING));
+	}
+
+	@Test
+	void asyncWriterFailures() throws Exception {
+		OutputFormat failing = new FormatWriters.Format(out -> new WordWriter() {
+			@Override
+			public void write(int address, short word, String source) throws IOException {
+				throw new IOException("No space left on device");
+			}
+
+			@Override
+			public void flush() {}
+		}, true, false);
+		for (int i = 0; i < 5; i++) {
+			IOException e = assertThrows(IOException.class, () -> assemble("ADD R0, R0, R0\n".repeat(5000), failing));
+			assertEquals("No space left on device", e.getMessage());
+		}
+		assertFalse(Thread.getAllStackTraces().keySet().stream().anyMatch(t -> t.getName().equals("sisaj-output-writer")),
+				"Output threads left running");
+	}
+}
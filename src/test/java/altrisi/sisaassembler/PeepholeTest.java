@@ -0,0 +1,107 @@
+package altrisi.sisaassembler;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static altrisi.sisaassembler.TestUtils.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.EnumSet;
+
+import org.junit.jupiter.api.Test;
+
+class PeepholeTest {
+	private static int removed;
+
+	private static byte[] optimized(String code) throws IOException {
+		var out = new ByteArrayOutputStream();
+		try (var assembler = new Assembler(out)) {
+			assembler.optimize(EnumSet.allOf(Peephole.class));
+			assembler.assemble(code.lines());
+			removed = assembler.optimizedOut();
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] plain(String code) throws IOException {
+		var out = new ByteArrayOutputStream();
+		try (var assembler = new Assembler(out)) {
+			assembler.assemble(code.lines());
+		}
+		return out.toByteArray();
+	}
+
+	@Test
+	void redundantAddi() throws Exception {
+		assertArrayEquals(plain("ADD R1, R2, R3"), optimized("""
+				ADDI R1, R1, 0
+				ADD R1, R2, R3
+				ADDI R3, R3, 0
+				"""));
+		assertEquals(2, removed);
+	}
+
+	@Test
+	void keepsNonRedundantAddi() throws Exception {
+		String code = """
+				ADDI R1, R2, 0
+				ADDI R1, R1, 1
+				""";
+		assertArrayEquals(plain("ADDI R1, R2, 1"), optimized(code));
+	}
+
+	@Test
+	void deadMoves() throws Exception {
+		assertArrayEquals(plain("MOVI R1, 5"), optimized("""
+				MOVI R1, 3
+				MOVHI R1, 2
+				MOVI R1, 5
+				"""));
+		assertEquals(2, removed);
+	}
+
+	@Test
+	void keepsFullLoads() throws Exception {
+		String code = """
+				MOVI R1, 3
+				MOVHI R1, 2
+				MOVI R2, 5
+				""";
+		assertArrayEquals(plain(code), optimized(code));
+		assertEquals(0, removed);
+	}
+
+	@Test
+	void mergesAddiChains() throws Exception {
+		assertArrayEquals(plain("ADDI R1, R1, 6"), optimized("""
+				ADDI R1, R1, 1
+				ADDI R1, R1, 2
+				ADDI R1, R1, 3
+				"""));
+		assertEquals(2, removed);
+	}
+
+	@Test
+	void doesntMergeOverflows() throws Exception {
+		String code = """
+				ADDI R1, R1, 30
+				ADDI R1, R1, 3
+				""";
+		assertArrayEquals(plain(code), optimized(code));
+	}
+
+	@Test
+	void notAcrossLabels() throws Exception {
+		String code = """
+				ADDI R1, R1, 1
+				loop: ADDI R1, R1, 2
+				""";
+		assertArrayEquals(plain(code), optimized(code));
+	}
+
+	@Test
+	void movhiSetsHighFlag() throws Exception {
+		assertCompiles("MOVHI R1, 2")
+			.toSingleInstruction((short)0x9302);
+	}
+}
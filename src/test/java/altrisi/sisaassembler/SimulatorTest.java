@@ -0,0 +1,130 @@
+package altrisi.sisaassembler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static altrisi.sisaassembler.TestUtils.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SimulatorTest {
+	// adds 1 to n, stores every partial sum in consecutive words at 0x8000 and outputs the total
+	private static final String SUM = """
+			IN R1, 0
+			MOVI R2, 0
+			LI R3, 0x8000
+			ADD R2, R2, R1
+			ST 0(R3), R2
+			ADDI R3, R3, 2
+			ADDI R1, R1, -1
+			BNZ R1, -5
+			OUT 0, R2
+			BZ R0, -1
+			""";
+
+	private static Simulator load(String code) throws Exception {
+		var simulator = new Simulator();
+		simulator.load(assertCompiles(code).result(), 0);
+		return simulator;
+	}
+
+	@Test
+	void runsPrograms() throws Exception {
+		var simulator = load(SUM);
+		simulator.setInput(0, (short)10);
+		simulator.run(1000);
+		assertTrue(simulator.halted());
+		assertEquals((short)55, simulator.output(0));
+		assertEquals((short)10, simulator.readWord(0x8000));
+		assertEquals((short)55, simulator.readWord(0x8000 + 9 * 2));
+		assertEquals(0x14, simulator.pc());
+	}
+
+	@Test
+	void instructions() throws Exception {
+		var simulator = load("""
+				MOVI R1, -3
+				MOVI R2, 2
+				SHA R3, R1, R2
+				NOT R4, R2
+				SHL R5, R1, R4
+				CMPLTU R6, R2, R1
+				STB -1(R2), R1
+				LDB R7, 1(R0)
+				JALR R0, R0
+				""");
+		simulator.run(9);
+		assertEquals((short)-12, simulator.register(3));
+		assertEquals((short)~2, simulator.register(4));
+		assertEquals((short)(0xFFFD >>> 3), simulator.register(5)); // ~2 is -3, shifts right by 3
+		assertEquals((short)1, simulator.register(6));
+		assertEquals((short)-3, simulator.register(7));
+		assertEquals(0, simulator.pc());
+		assertEquals((short)18, simulator.register(0));
+	}
+
+	@Test
+	void undefinedInstructions() throws Exception {
+		var simulator = new Simulator();
+		simulator.writeWord(0, (short)0xF000);
+		assertThrows(SimulationException.class, simulator::step);
+	}
+
+	@Test
+	void restoresSnapshots() throws Exception {
+		var simulator = load(SUM);
+		var loaded = simulator.snapshot();
+		for (int n = 1; n < 100; n += 7) {
+			simulator.restore(loaded);
+			assertEquals(0, simulator.dirtyPages());
+			simulator.setInput(0, (short)n);
+			simulator.run(10_000);
+			assertEquals((short)(n * (n + 1) / 2), simulator.output(0));
+			assertTrue(simulator.dirtyPages() <= 1, "Only the partial sums should be written");
+		}
+		simulator.restore(loaded);
+		assertEquals(0, simulator.pc());
+		assertEquals((short)0, simulator.output(0));
+		assertEquals((short)0, simulator.readWord(0x8000));
+		assertEquals((short)0, simulator.register(2));
+	}
+
+	@Test
+	void forksAtBreakpoints() throws Exception {
+		var simulator = load(SUM);
+		simulator.setInput(0, (short)200); // partial sums take two pages
+		var start = simulator.snapshot();
+		simulator.run(4 + 5 * 150);
+		var middle = simulator.snapshot();
+		short written = simulator.readWord(0x8000 + 149 * 2);
+
+		simulator.run(10_000);
+		assertEquals((short)20100, simulator.output(0));
+		simulator.restore(middle);
+		assertEquals(written, simulator.readWord(0x8000 + 149 * 2));
+		assertEquals((short)0, simulator.readWord(0x8000 + 150 * 2));
+		simulator.writeWord(0x8000, (short)-1);
+		simulator.restore(start);
+		assertEquals((short)0, simulator.readWord(0x8000));
+		simulator.restore(middle); // not the last one anymore
+		assertEquals(written, simulator.readWord(0x8000 + 149 * 2));
+		assertEquals((short)0, simulator.readWord(0x8000 + 199 * 2));
+		simulator.run(10_000);
+		assertEquals((short)20100, simulator.output(0));
+	}
+
+	@Test
+	void loadsFiles(@TempDir Path dir) throws Exception {
+		Path image = dir.resolve("sum.bin");
+		Files.write(image, assertCompiles(SUM).result());
+		var simulator = new Simulator();
+		assertEquals(Files.size(image), simulator.load(image));
+		simulator.setInput(0, (short)4);
+		simulator.run(1000);
+		assertEquals((short)10, simulator.output(0));
+	}
+}